@@ -0,0 +1,119 @@
+package com.microsoft.migration.assets.worker.service;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Source images for the benchmarks.
+ * Names like {@code jpeg-4000x3000} or {@code png-alpha-1024x768} are generated deterministically
+ * (gradients, shapes and noise, so encoders and resamplers see realistic detail). Any other name is
+ * read from the directory given by the {@code benchmark.corpus} system property, which allows
+ * running the same benchmarks against real photos.
+ */
+public final class ImageCorpus {
+    public static final String CORPUS_DIRECTORY_PROPERTY = "benchmark.corpus";
+
+    private static final Pattern SYNTHETIC = Pattern.compile("(jpeg|png)(-alpha)?-(\\d+)x(\\d+)");
+
+    private ImageCorpus() {
+    }
+
+    /**
+     * Returns the encoded bytes of the named image
+     */
+    public static byte[] load(String name) throws IOException {
+        Matcher matcher = SYNTHETIC.matcher(name);
+        if (matcher.matches()) {
+            String format = matcher.group(1);
+            boolean alpha = matcher.group(2) != null;
+            if (alpha && "jpeg".equals(format)) {
+                throw new IllegalArgumentException("JPEG has no alpha channel: " + name);
+            }
+            BufferedImage image = generate(Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)), alpha);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ImageIO.write(image, format, buffer);
+            return buffer.toByteArray();
+        }
+
+        String directory = System.getProperty(CORPUS_DIRECTORY_PROPERTY);
+        if (directory == null) {
+            throw new IllegalArgumentException("Unknown image " + name + ", set -D" + CORPUS_DIRECTORY_PROPERTY
+                    + " to load it from a directory");
+        }
+        Path file = Paths.get(directory).resolve(name);
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Returns the file extension used when encoding the named image
+     */
+    public static String extension(String name) {
+        Matcher matcher = SYNTHETIC.matcher(name);
+        if (matcher.matches()) {
+            return "jpeg".equals(matcher.group(1)) ? ".jpg" : ".png";
+        }
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot) : ".jpg";
+    }
+
+    static BufferedImage generate(int width, int height, boolean alpha) {
+        BufferedImage image = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setPaint(new GradientPaint(0, 0, new Color(30, 80, 160, alpha ? 180 : 255),
+                width, height, new Color(240, 200, 90, alpha ? 60 : 255)));
+        g2d.fillRect(0, 0, width, height);
+
+        // Hard edges and fine lines are what resampling and sharpening spend their time on
+        int shapes = Math.max(50, width * height / 20_000);
+        for (int i = 0; i < shapes; i++) {
+            g2d.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    alpha ? random.nextInt(256) : 255));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int size = 4 + random.nextInt(Math.max(5, Math.min(width, height) / 10));
+            if (i % 3 == 0) {
+                g2d.setStroke(new BasicStroke(1 + random.nextInt(3)));
+                g2d.drawLine(x, y, x + size, y + random.nextInt(size) - size / 2);
+            } else if (i % 3 == 1) {
+                g2d.fillOval(x, y, size, size);
+            } else {
+                g2d.fillRect(x, y, size, size / 2 + 1);
+            }
+        }
+        g2d.dispose();
+
+        // Sensor-like noise keeps the encoders from seeing flat areas
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = image.getRGB(x, y);
+                int noise = random.nextInt(17) - 8;
+                int r = clamp(((argb >> 16) & 0xff) + noise);
+                int g = clamp(((argb >> 8) & 0xff) + noise);
+                int b = clamp((argb & 0xff) + noise);
+                image.setRGB(x, y, (argb & 0xff000000) | (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,125 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.imaging.Java2dResamplingEngine;
+import com.microsoft.migration.assets.imaging.ResamplingEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the thumbnail hot paths of {@link AbstractFileProcessingService} in isolation:
+ * the full decode-and-resize pipeline, the scaling and sharpening steps of each
+ * {@link ResamplingEngine}, and encoding.
+ * Throughput and sample-time modes are both measured, so results include ops/s and p99 latency;
+ * {@link BenchmarkRunner} adds the GC profiler for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "-Djava.awt.headless=true"})
+public class ThumbnailBenchmark {
+
+    @Param({
+        "jpeg-1024x768", "jpeg-4000x3000",
+        "png-1024x768", "png-4000x3000",
+        "png-alpha-1024x768", "png-alpha-4000x3000"
+    })
+    public String image;
+
+    @Param({"600"})
+    public int thumbnailSize;
+
+    @Param({"java2d", "raster"})
+    public String engine;
+
+    private final LocalFileProcessingService service = new LocalFileProcessingService();
+    private ResamplingEngine resamplingEngine;
+
+    private byte[] encoded;
+    private String extension;
+    private List<Integer> renditions;
+    private BufferedImage decoded;
+    private BufferedImage scaled;
+    private int targetWidth;
+    private int targetHeight;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        resamplingEngine = "raster".equals(engine)
+                ? new RasterResamplingEngine(0)
+                : new Java2dResamplingEngine();
+        service.setResamplingEngine(resamplingEngine);
+
+        encoded = ImageCorpus.load(image);
+        extension = ImageCorpus.extension(image);
+        renditions = Arrays.asList(thumbnailSize * 2, thumbnailSize, thumbnailSize / 4);
+
+        decoded = ImageIO.read(new ByteArrayInputStream(encoded));
+        double scale = Math.min((double) thumbnailSize / decoded.getWidth(), (double) thumbnailSize / decoded.getHeight());
+        targetWidth = Math.max(1, (int) (decoded.getWidth() * scale));
+        targetHeight = Math.max(1, (int) (decoded.getHeight() * scale));
+        scaled = resamplingEngine.scale(decoded, targetWidth, targetHeight);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (resamplingEngine instanceof RasterResamplingEngine) {
+            ((RasterResamplingEngine) resamplingEngine).shutdown();
+        }
+    }
+
+    /**
+     * Decode, all renditions and sharpening, as run for every queue message
+     */
+    @Benchmark
+    public Map<Integer, BufferedImage> generateThumbnails() throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            return service.generateThumbnails(input, renditions);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage scale() {
+        return resamplingEngine.scale(decoded, targetWidth, targetHeight);
+    }
+
+    @Benchmark
+    public BufferedImage sharpen() {
+        return resamplingEngine.sharpen(scaled);
+    }
+
+    /**
+     * Separate steps for Java2D, a single fused pass for the raster engine
+     */
+    @Benchmark
+    public BufferedImage scaleAndSharpen() {
+        return resamplingEngine.scaleAndSharpen(decoded, targetWidth, targetHeight);
+    }
+
+    @Benchmark
+    public byte[] encodeImage() throws IOException {
+        return service.encodeImage(scaled, extension);
+    }
+}
@@ -0,0 +1,39 @@
+package com.microsoft.migration.assets.imaging;
+
+import java.awt.Dimension;
+
+/**
+ * How an image is fitted into a target box. Images are never scaled up.
+ */
+public enum Fit {
+
+    /**
+     * Scale to fit inside the box, keeping the aspect ratio
+     */
+    CONTAIN,
+
+    /**
+     * Scale to cover the box, keeping the aspect ratio, then crop the overflow around the centre
+     */
+    COVER,
+
+    /**
+     * Scale each side to the box, distorting the aspect ratio
+     */
+    FILL;
+
+    /**
+     * Size of the scaled image before any cropping
+     */
+    public Dimension scaledSize(int sourceWidth, int sourceHeight, int width, int height) {
+        if (this == FILL) {
+            return new Dimension(Math.min(width, sourceWidth), Math.min(height, sourceHeight));
+        }
+        double scaleX = (double) width / sourceWidth;
+        double scaleY = (double) height / sourceHeight;
+        double scale = Math.min(1, this == COVER ? Math.max(scaleX, scaleY) : Math.min(scaleX, scaleY));
+        return new Dimension(
+                Math.max(1, (int) Math.round(sourceWidth * scale)),
+                Math.max(1, (int) Math.round(sourceHeight * scale)));
+    }
+}
@@ -0,0 +1,128 @@
+package com.microsoft.migration.assets.imaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Decodes images at no more resolution than a scaled copy needs.
+ * The header is read first so that very large sources are subsampled by the reader
+ * to roughly twice the target size, and sources with a pathological aspect ratio are
+ * cropped to a centred region, instead of decoding every source pixel.
+ */
+public class ImageDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageDecoder.class);
+
+    private final double maxAspectRatio;
+
+    /**
+     * @param maxAspectRatio longest to shortest side beyond which sources are cropped, 0 to never crop
+     */
+    public ImageDecoder(double maxAspectRatio) {
+        this.maxAspectRatio = maxAspectRatio;
+    }
+
+    /**
+     * Decodes the image for a target whose longest side is maxDimension.
+     * Returns null when no reader can decode the stream.
+     */
+    public BufferedImage read(ImageInputStream input, int maxDimension) throws IOException {
+        return read(input, maxDimension, sourcePixels -> { });
+    }
+
+    /**
+     * Decodes the image like {@link #read(ImageInputStream, int)}, reporting the pixel count of
+     * the full source to the given consumer before decoding it
+     */
+    public BufferedImage read(ImageInputStream input, int maxDimension, LongConsumer sourcePixels) throws IOException {
+        return read(input, maxDimension, maxDimension, Fit.CONTAIN, sourcePixels);
+    }
+
+    /**
+     * Decodes the image for a target box of width x height the image is fitted into.
+     * Returns null when no reader can decode the stream.
+     */
+    public BufferedImage read(ImageInputStream input, int width, int height, Fit fit) throws IOException {
+        return read(input, width, height, fit, sourcePixels -> { });
+    }
+
+    private BufferedImage read(ImageInputStream input, int targetWidth, int targetHeight, Fit fit,
+                               LongConsumer sourcePixels) throws IOException {
+        if (input == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            return null;
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            sourcePixels.accept((long) width * height);
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            // Keep extreme panoramas and strips from turning into sliver thumbnails
+            Rectangle region = sourceRegion(width, height);
+            if (region != null) {
+                param.setSourceRegion(region);
+                width = region.width;
+                height = region.height;
+            }
+
+            // Let the decoder skip pixels, leaving the quality steps a 2x margin to work with
+            double ratioX = (double) width / targetWidth / 2;
+            double ratioY = (double) height / targetHeight / 2;
+            int subsamplingX;
+            int subsamplingY;
+            if (fit == Fit.FILL) {
+                subsamplingX = Math.max(1, (int) ratioX);
+                subsamplingY = Math.max(1, (int) ratioY);
+            } else {
+                // Contained images are bound by their tighter side, covering ones by the looser
+                double ratio = fit == Fit.COVER ? Math.min(ratioX, ratioY) : Math.max(ratioX, ratioY);
+                subsamplingX = subsamplingY = Math.max(1, (int) ratio);
+            }
+            if (subsamplingX > 1 || subsamplingY > 1) {
+                param.setSourceSubsampling(subsamplingX, subsamplingY, 0, 0);
+            }
+
+            log.debug("Decoding {}x{} source with region {} and subsampling {}x{}",
+                    reader.getWidth(0), reader.getHeight(0), region, subsamplingX, subsamplingY);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Centred source region for images whose aspect ratio exceeds the configured limit,
+     * or null when the whole image should be decoded.
+     */
+    private Rectangle sourceRegion(int width, int height) {
+        if (maxAspectRatio <= 0) {
+            return null;
+        }
+        if (width > height * maxAspectRatio) {
+            int regionWidth = (int) (height * maxAspectRatio);
+            return new Rectangle((width - regionWidth) / 2, 0, regionWidth, height);
+        }
+        if (height > width * maxAspectRatio) {
+            int regionHeight = (int) (width * maxAspectRatio);
+            return new Rectangle(0, (height - regionHeight) / 2, width, regionHeight);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.migration.assets.imaging;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes scaled images with the quality settings used for thumbnails and renditions
+ */
+public final class ImageEncoder {
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * Encodes the image into memory with the settings for the format implied by the extension.
+     */
+    public static byte[] encode(BufferedImage image, String extension) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ImageOutputStream outputStream = ImageIO.createImageOutputStream(buffer)) {
+            write(image, extension, outputStream);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes the image with optimized settings for the format implied by the extension.
+     */
+    public static void write(BufferedImage resultImage, String extension, ImageOutputStream outputStream) throws IOException {
+        // Determine the output format based on the file extension
+        if (extension.startsWith(".")) {
+            extension = extension.substring(1);
+        }
+        if (extension.isEmpty()) {
+            extension = "jpg"; // Default to jpg if no extension found
+        }
+
+        // Write the thumbnail with optimized settings for different formats
+        if (extension.equalsIgnoreCase("jpg") || extension.equalsIgnoreCase("jpeg")) {
+            // For JPEG, we need to set compression quality
+            ImageWriter jpgWriter = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
+            jpgWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            // Higher compression quality (0.95 for maximum clarity)
+            jpgWriteParam.setCompressionQuality(0.95f);
+            
+            IIOImage outputImage = new IIOImage(resultImage, null, null);
+            jpgWriter.setOutput(outputStream);
+            jpgWriter.write(null, outputImage, jpgWriteParam);
+            jpgWriter.dispose();
+        } else {
+            // For PNG, use compression level 0 (no compression) for best quality
+            ImageWriteParam pngWriteParam = null;
+            if (extension.equalsIgnoreCase("png")) {
+                ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
+                pngWriteParam = pngWriter.getDefaultWriteParam();
+                if (pngWriteParam.canWriteCompressed()) {
+                    pngWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    pngWriteParam.setCompressionType("Deflate");
+                    pngWriteParam.setCompressionQuality(0.0f); // 0 = best quality for PNG
+                    
+                    IIOImage outputImage = new IIOImage(resultImage, null, null);
+                    pngWriter.setOutput(outputStream);
+                    pngWriter.write(null, outputImage, pngWriteParam);
+                    pngWriter.dispose();
+                } else {
+                    ImageIO.write(resultImage, extension, outputStream);
+                }
+            } else {
+                // For other formats, use regular write method
+                ImageIO.write(resultImage, extension, outputStream);
+            }
+        }
+    }
+}
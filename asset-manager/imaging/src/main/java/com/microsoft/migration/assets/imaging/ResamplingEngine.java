@@ -0,0 +1,31 @@
+package com.microsoft.migration.assets.imaging;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales and sharpens decoded images into thumbnail renditions.
+ * The worker chooses the engine per deployment with image.processing.resampling.engine:
+ * {@code java2d} (default) keeps the progressive Graphics2D scaling, {@code raster} trades
+ * some quality for throughput with a separable filter over the raw pixel arrays.
+ */
+public interface ResamplingEngine {
+
+    /**
+     * Scales the image to exactly width x height without sharpening.
+     * Images already within the target size are returned unchanged.
+     */
+    BufferedImage scale(BufferedImage source, int width, int height);
+
+    /**
+     * Applies the thumbnail sharpening kernel
+     */
+    BufferedImage sharpen(BufferedImage image);
+
+    /**
+     * Scales and sharpens in one call, for when the unsharpened image is not needed afterwards.
+     * Engines that can fuse both steps override this.
+     */
+    default BufferedImage scaleAndSharpen(BufferedImage source, int width, int height) {
+        return sharpen(scale(source, width, height));
+    }
+}
@@ -1,14 +1,31 @@
 package com.microsoft.migration.assets.config;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
+@Profile("!dev")
 public class AwsS3Config {
 
     @Value("${aws.accessKey}")
@@ -20,12 +37,117 @@ public class AwsS3Config {
     @Value("${aws.region}")
     private String region;
 
+    /**
+     * Optional endpoint of an S3-compatible service (MinIO, LocalStack), addressed path-style
+     */
+    @Value("${aws.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${aws.s3.upload.threshold:16MB}")
+    private DataSize multipartThreshold;
+
+    @Value("${aws.s3.upload.part-size:8MB}")
+    private DataSize partSize;
+
+    /**
+     * Maximum parallel part uploads across all transfers
+     */
+    @Value("${aws.s3.upload.concurrency:16}")
+    private int uploadConcurrency;
+
+    /**
+     * Threads that feed request bodies into the async client, bounding concurrent uploads
+     */
+    @Value("${aws.s3.upload.stream-threads:8}")
+    private int streamThreads;
+
+    /**
+     * Threads recording and queueing uploaded objects once their transfer completed
+     */
+    @Value("${aws.s3.upload.announce-threads:4}")
+    private int announceThreads;
+
+    @Bean
     public S3Client s3Client() {
         AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKey, secretKey);
-        
+
         return S3Client.builder()
                 .region(Region.of(region))
                 .credentialsProvider(StaticCredentialsProvider.create(awsCredentials))
+                .applyMutation(builder -> {
+                    if (StringUtils.hasText(endpoint)) {
+                        builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Async client used for uploads. Objects above the threshold are split into parts that are
+     * uploaded in parallel; at most two parts per transfer are buffered at a time.
+     */
+    @Bean
+    public S3AsyncClient s3AsyncClient() {
+        AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKey, secretKey);
+
+        return S3AsyncClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(awsCredentials))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(uploadConcurrency))
+                .multipartEnabled(true)
+                .multipartConfiguration(MultipartConfiguration.builder()
+                        .thresholdInBytes(multipartThreshold.toBytes())
+                        .minimumPartSizeInBytes(partSize.toBytes())
+                        .apiCallBufferSizeInBytes(partSize.toBytes() * 2)
+                        .build())
+                .applyMutation(builder -> {
+                    if (StringUtils.hasText(endpoint)) {
+                        builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+                    }
+                })
                 .build();
     }
-}
\ No newline at end of file
+
+    /**
+     * Signs upload URLs that clients PUT object bytes to directly
+     */
+    @Bean
+    public S3Presigner s3Presigner() {
+        AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKey, secretKey);
+
+        S3Presigner.Builder builder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(awsCredentials));
+        if (StringUtils.hasText(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3UploadExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(streamThreads, streamThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "s3-upload-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Runs the blocking metadata and publish work that follows an upload, off the SDK's
+     * completion threads so other transfers keep completing meanwhile
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3AnnounceExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(announceThreads, announceThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "s3-announce-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -0,0 +1,121 @@
+package com.microsoft.migration.assets.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of file operations, one timer per operation, method and status. Timers record into
+ * lock-free histograms, so the request thread never waits on a shared lock. The p50, p95 and
+ * p99 of each operation are published as metrics and summarized at /actuator/fileoperations.
+ * A sample of requests is also written to the "access" logger, which logs asynchronously.
+ */
+@Component
+@Endpoint(id = "fileoperations")
+public class FileOperationMetrics {
+
+    static final String METRIC_NAME = "storage.operations";
+
+    private static final Logger accessLog = LoggerFactory.getLogger("access");
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Registered timers by tags, so recording does not build and look up a meter each time
+     */
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * Fraction of requests written to the access log, 0 to disable it
+     */
+    @Value("${storage.access-log.sample-rate:0}")
+    private double accessLogSampleRate;
+
+    /**
+     * Window the percentiles are computed over, older samples age out
+     */
+    @Value("${storage.operations.percentiles-window:2m}")
+    private Duration percentilesWindow = Duration.ofMinutes(2);
+
+    public FileOperationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    void record(String operation, String method, String uri, int status, Throwable error, long durationNanos) {
+        String exception = error != null ? error.getClass().getSimpleName() : "none";
+        timers.computeIfAbsent(new TimerKey(operation, method, status, exception), this::register)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+
+        if (accessLogSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < accessLogSampleRate) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            if (error != null) {
+                accessLog.info("{} {} {} {} {}ms {}", method, uri, operation, status, millis, error.toString());
+            } else {
+                accessLog.info("{} {} {} {} {}ms", method, uri, operation, status, millis);
+            }
+        }
+    }
+
+    private Timer register(TimerKey key) {
+        return Timer.builder(METRIC_NAME)
+                .description("Latency of file operations")
+                .tag("operation", key.getOperation())
+                .tag("method", key.getMethod())
+                .tag("status", Integer.toString(key.getStatus()))
+                .tag("exception", key.getException())
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .distributionStatisticExpiry(percentilesWindow)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Count, mean, max and percentiles in milliseconds, by operation and then by method and status
+     */
+    @ReadOperation
+    public Map<String, Map<String, Map<String, Object>>> operations() {
+        Map<String, Map<String, Map<String, Object>>> operations = new TreeMap<>();
+        for (Timer timer : meterRegistry.find(METRIC_NAME).timers()) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", snapshot.count());
+            summary.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+            summary.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                summary.put("p" + Math.round(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS));
+            }
+
+            String exception = timer.getId().getTag("exception");
+            String series = timer.getId().getTag("method") + " " + timer.getId().getTag("status")
+                    + ("none".equals(exception) ? "" : " " + exception);
+            operations.computeIfAbsent(timer.getId().getTag("operation"), operation -> new TreeMap<>())
+                    .put(series, summary);
+        }
+        return operations;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class TimerKey {
+        private final String operation;
+        private final String method;
+        private final int status;
+        private final String exception;
+    }
+}
@@ -1,24 +1,98 @@
 package com.microsoft.migration.assets.config;
 
+import com.microsoft.migration.assets.service.StorageService;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.amqp.RabbitTemplateConfigurer;
 import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.util.Date;
 
 @Configuration
 public class RabbitConfig {
-    public static final String IMAGE_PROCESSING_QUEUE = "image-processing";
+    /**
+     * Topic exchange for image messages, routed by storage type ("s3", "local")
+     */
+    public static final String IMAGE_PROCESSING_EXCHANGE = "image-processing";
+    public static final String IMAGE_PROCESSING_BACKUP_QUEUE = "image-processing.backup";
+
+    /**
+     * Dead-letter exchange of the worker queues, declared by the worker
+     */
+    public static final String IMAGE_PROCESSING_PARKING_LOT = "image-processing.parking-lot";
+
+    /**
+     * Topic exchange for objects written by the worker, routed by storage type
+     */
+    public static final String STORAGE_EVENTS_EXCHANGE = "storage-events";
+
+    /**
+     * Queue consumed by the workers of one storage type
+     */
+    public static String imageProcessingQueue(String storageType) {
+        return IMAGE_PROCESSING_EXCHANGE + "." + storageType;
+    }
+
+    @Bean
+    public TopicExchange imageProcessingExchange() {
+        return new TopicExchange(IMAGE_PROCESSING_EXCHANGE);
+    }
+
+    /**
+     * Declares the queue for this instance's storage type, so uploads are not dropped as
+     * unroutable before the first worker for that storage type has started.
+     * The arguments must match the worker's declaration.
+     */
+    @Bean
+    public Declarables imageProcessingQueues(StorageService storageService) {
+        Queue queue = QueueBuilder.durable(imageProcessingQueue(storageService.getStorageType()))
+                .deadLetterExchange(IMAGE_PROCESSING_PARKING_LOT)
+                .build();
+        return new Declarables(queue,
+                BindingBuilder.bind(queue).to(imageProcessingExchange()).with(storageService.getStorageType()));
+    }
 
+    /**
+     * The backup monitor gets its own copy of every message instead of competing with the workers
+     */
     @Bean
-    public Queue imageProcessingQueue() {
-        return QueueBuilder.durable(IMAGE_PROCESSING_QUEUE)
-        .build();
+    @Profile("backup")
+    public Declarables imageProcessingBackupQueue() {
+        Queue queue = QueueBuilder.durable(IMAGE_PROCESSING_BACKUP_QUEUE).build();
+        return new Declarables(queue, BindingBuilder.bind(queue).to(imageProcessingExchange()).with("#"));
+    }
+
+    @Bean
+    public TopicExchange storageEventsExchange() {
+        return new TopicExchange(STORAGE_EVENTS_EXCHANGE);
+    }
+
+    /**
+     * Every instance gets its own server-named queue, so each one invalidates its own cache.
+     * It is exclusive and auto-delete, so it goes away with the instance.
+     */
+    @Bean
+    public Queue storageEventsQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding storageEventsBinding(StorageService storageService) {
+        return BindingBuilder.bind(storageEventsQueue()).to(storageEventsExchange()).with(storageService.getStorageType());
     }
 
     @Bean
@@ -37,4 +111,18 @@ public class RabbitConfig {
         return factory;
     }
 
+    /**
+     * Stamps every published message so the worker can measure queue wait time
+     */
+    @Bean
+    public RabbitTemplate rabbitTemplate(RabbitTemplateConfigurer configurer, ConnectionFactory connectionFactory) {
+        RabbitTemplate template = new RabbitTemplate();
+        configurer.configure(template, connectionFactory);
+        template.addBeforePublishPostProcessors(message -> {
+            message.getMessageProperties().setTimestamp(new Date());
+            return message;
+        });
+        return template;
+    }
+
 }
\ No newline at end of file
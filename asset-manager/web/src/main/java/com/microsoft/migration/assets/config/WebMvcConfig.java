@@ -1,21 +1,28 @@
 package com.microsoft.migration.assets.config;
 
 import com.microsoft.migration.assets.constants.StorageConstants;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
-import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Configuration
+@RequiredArgsConstructor
 @SuppressWarnings("deprecation")
 public class WebMvcConfig extends WebMvcConfigurerAdapter {
 
+    private final FileOperationMetrics fileOperationMetrics;
+
     /**
      * Resource handlers with caching for static content.
      */
@@ -33,68 +40,78 @@ public class WebMvcConfig extends WebMvcConfigurerAdapter {
     }
 
     /**
-     * Interceptors for request logging and file operation monitoring.
+     * Interceptors for file operation monitoring.
      */
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new FileOperationLoggingInterceptor())
-                .addPathPatterns("/" + StorageConstants.STORAGE_PATH + "/**")
-                .excludePathPatterns("/" + StorageConstants.STORAGE_PATH + "/view/**"); // Exclude file download endpoints from detailed logging
+        registry.addInterceptor(new FileOperationMetricsInterceptor(fileOperationMetrics))
+                .addPathPatterns("/" + StorageConstants.STORAGE_PATH + "/**");
     }
 
     /**
-     * Custom interceptor using HandlerInterceptorAdapter.
-     * This interceptor logs file operations for monitoring and debugging purposes.
+     * Times file operations into {@link FileOperationMetrics}.
+     * Asynchronous handlers are timed until their result has been written.
      */
-    private static class FileOperationLoggingInterceptor extends HandlerInterceptorAdapter {
-        
+    private static class FileOperationMetricsInterceptor implements AsyncHandlerInterceptor {
+
+        private static final String START_TIME = FileOperationMetricsInterceptor.class.getName() + ".startTime";
+
+        private static final String STORAGE = "/" + StorageConstants.STORAGE_PATH;
+
+        /**
+         * Operation of each storage handler mapping
+         */
+        private static final Map<String, String> OPERATIONS = new HashMap<>();
+
+        static {
+            OPERATIONS.put(STORAGE, "FILE_LIST");
+            OPERATIONS.put(STORAGE + "/page", "FILE_LIST");
+            OPERATIONS.put(STORAGE + "/upload", "FILE_UPLOAD");
+            OPERATIONS.put(STORAGE + "/upload/stream", "FILE_UPLOAD");
+            OPERATIONS.put(STORAGE + "/uploads", "FILE_DIRECT_UPLOAD");
+            OPERATIONS.put(STORAGE + "/uploads/{token}/complete", "FILE_DIRECT_UPLOAD");
+            OPERATIONS.put(STORAGE + "/direct/{token}", "FILE_DIRECT_UPLOAD");
+            OPERATIONS.put(STORAGE + "/bulk", "FILE_BULK_UPLOAD");
+            OPERATIONS.put(STORAGE + "/delete/{key}", "FILE_DELETE");
+            OPERATIONS.put(STORAGE + "/view/{key}", "FILE_DOWNLOAD");
+            OPERATIONS.put(STORAGE + "/view-page/{key}", "FILE_VIEW_PAGE");
+        }
+
+        private final FileOperationMetrics metrics;
+
+        FileOperationMetricsInterceptor(FileOperationMetrics metrics) {
+            this.metrics = metrics;
+        }
+
         @Override
         public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
-            long startTime = System.currentTimeMillis();
-            request.setAttribute("startTime", startTime);
-            
-            String operation = determineFileOperation(request);
-            System.out.printf("[FILE-OP] %s %s - %s started at %d%n", 
-                    request.getMethod(), request.getRequestURI(), operation, startTime);
-            
+            // Async dispatches of the same request keep the time of the first
+            if (request.getAttribute(START_TIME) == null) {
+                request.setAttribute(START_TIME, System.nanoTime());
+            }
             return true;
         }
 
         @Override
-        public void afterCompletion(HttpServletRequest request, HttpServletResponse response, 
-                                  Object handler, Exception ex) {
-            long startTime = (Long) request.getAttribute("startTime");
-            long duration = System.currentTimeMillis() - startTime;
-            String operation = determineFileOperation(request);
-            
-            if (ex != null) {
-                System.out.printf("[FILE-OP] %s %s - %s FAILED in %d ms (Status: %d, Error: %s)%n", 
-                        request.getMethod(), request.getRequestURI(), operation, duration, 
-                        response.getStatus(), ex.getMessage());
-            } else {
-                System.out.printf("[FILE-OP] %s %s - %s completed in %d ms (Status: %d)%n", 
-                        request.getMethod(), request.getRequestURI(), operation, duration, 
-                        response.getStatus());
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                                    Object handler, Exception ex) {
+            Long startTime = (Long) request.getAttribute(START_TIME);
+            if (startTime == null) {
+                return;
             }
+            // Exceptions are turned into an error response only after the interceptors ran
+            int status = ex != null && response.getStatus() < 400 ? 500 : response.getStatus();
+            metrics.record(determineFileOperation(request), request.getMethod(), request.getRequestURI(),
+                    status, ex, System.nanoTime() - startTime);
         }
         
+        /**
+         * Classifies by the mapping that handled the request, rather than by the request path,
+         * which carries user-chosen object keys
+         */
         private String determineFileOperation(HttpServletRequest request) {
-            String uri = request.getRequestURI();
-            String method = request.getMethod();
-            
-            if (uri.contains("/upload")) {
-                return "FILE_UPLOAD";
-            } else if (uri.contains("/delete/")) {
-                return "FILE_DELETE";
-            } else if (uri.contains("/view/")) {
-                return "FILE_DOWNLOAD";
-            } else if (uri.contains("/view-page/")) {
-                return "FILE_VIEW_PAGE";
-            } else if ("GET".equals(method) && uri.equals("/" + StorageConstants.STORAGE_PATH)) {
-                return "FILE_LIST";
-            } else {
-                return "FILE_OPERATION";
-            }
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            return pattern != null ? OPERATIONS.getOrDefault(pattern.toString(), "FILE_OPERATION") : "FILE_OPERATION";
         }
     }
 }
@@ -1,16 +1,24 @@
-package com.microsoft.migration.assets.constants;
-
-/**
- * Application constants for storage paths and configurations
- */
-public final class StorageConstants {
-    
-    /**
-     * Base storage path for web endpoints
-     */
-    public static final String STORAGE_PATH = "storage";
-    
-    private StorageConstants() {
-        // Utility class - prevent instantiation
-    }
+package com.microsoft.migration.assets.constants;
+
+import java.util.regex.Pattern;
+
+/**
+ * Application constants for storage paths and configurations
+ */
+public final class StorageConstants {
+    
+    /**
+     * Base storage path for web endpoints
+     */
+    public static final String STORAGE_PATH = "storage";
+
+    /**
+     * Base name (without extension) of a thumbnail, "<name>_thumbnail", or of a sized
+     * rendition, "<name>_thumbnail_<size>"
+     */
+    public static final Pattern THUMBNAIL_BASE_NAME = Pattern.compile(".*_thumbnail(_\\d+)?");
+    
+    private StorageConstants() {
+        // Utility class - prevent instantiation
+    }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.microsoft.migration.assets.controller;
+
+import com.microsoft.migration.assets.constants.StorageConstants;
+import com.microsoft.migration.assets.service.LocalFileStorageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Receives direct uploads in the dev profile, standing in for presigned S3 URLs. The body is
+ * streamed to disk as sent, without multipart parsing.
+ */
+@Controller
+@Profile("dev")
+@RequestMapping("/" + StorageConstants.STORAGE_PATH)
+@RequiredArgsConstructor
+public class LocalUploadController {
+
+    private final LocalFileStorageService localFileStorageService;
+
+    @PutMapping("/direct/{token}")
+    public ResponseEntity<String> upload(@PathVariable String token,
+                                         @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                         HttpServletRequest request) throws IOException {
+        try {
+            localFileStorageService.storeDirectUpload(token, contentType, request.getInputStream());
+            return ResponseEntity.ok().build();
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
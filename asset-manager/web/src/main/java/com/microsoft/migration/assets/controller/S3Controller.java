@@ -1,52 +1,141 @@
 package com.microsoft.migration.assets.controller;
 
 import com.microsoft.migration.assets.constants.StorageConstants;
+import com.microsoft.migration.assets.imaging.Fit;
+import com.microsoft.migration.assets.model.Rendition;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import com.microsoft.migration.assets.model.UploadIntent;
+import com.microsoft.migration.assets.model.UploadIntentRequest;
+import com.microsoft.migration.assets.model.UploadResult;
+import com.microsoft.migration.assets.service.BulkUploadService;
+import com.microsoft.migration.assets.service.ListingCache;
+import com.microsoft.migration.assets.service.RenditionService;
 import com.microsoft.migration.assets.service.StorageService;
+import com.microsoft.migration.assets.service.StreamingUploadService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Controller
 @RequestMapping("/" + StorageConstants.STORAGE_PATH)
 @RequiredArgsConstructor
 public class S3Controller {
 
+    /**
+     * Tomcat request attributes that hand a file region to the connector for zero-copy writes
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final StorageService storageService;
+    private final ListingCache listingCache;
+    private final BulkUploadService bulkUploadService;
+    private final StreamingUploadService streamingUploadService;
+    private final RenditionService renditionService;
+
+    @Value("${storage.list.page-size:48}")
+    private int pageSize;
+
+    /**
+     * Largest file accepted by a direct upload, S3 takes up to 5GB in a single PUT
+     */
+    @Value("${storage.upload.direct.max-size:5GB}")
+    private DataSize maxDirectUploadSize;
 
     @GetMapping
-    public String listObjects(Model model) {
-        List<S3StorageItem> objects = storageService.listObjects();
-        model.addAttribute("objects", objects);
+    public String listObjects(@RequestParam(required = false) String prefix, Model model) {
+        addPage(listPage(prefix, null), prefix, model);
         return "list";
     }
 
+    /**
+     * Next page of the listing as a fragment, fetched as the user scrolls
+     */
+    @GetMapping("/page")
+    public String listObjectsPage(@RequestParam(required = false) String prefix,
+                                  @RequestParam(required = false) String token, Model model) {
+        addPage(listPage(prefix, token), prefix, model);
+        return "list :: page";
+    }
+
+    private S3StoragePage listPage(String prefix, String token) {
+        return listingCache.getPage(prefix, pageSize, token, () -> storageService.listObjects(prefix, pageSize, token));
+    }
+
+    private void addPage(S3StoragePage page, String prefix, Model model) {
+        model.addAttribute("objects", page.getItems());
+        model.addAttribute("nextToken", page.getContinuationToken());
+        model.addAttribute("prefix", prefix);
+    }
+
     @GetMapping("/upload")
     public String uploadForm() {
         return "upload";
     }
 
     @PostMapping("/upload")
-    public String uploadObject(@RequestParam("file") MultipartFile file, RedirectAttributes redirectAttributes) {
+    public CompletableFuture<String> uploadObject(@RequestParam("file") MultipartFile file, RedirectAttributes redirectAttributes) {
         try {
             if (file.isEmpty()) {
                 redirectAttributes.addFlashAttribute("error", "Please select a file to upload");
-                return "redirect:/" + StorageConstants.STORAGE_PATH + "/upload";
+                return CompletableFuture.completedFuture("redirect:/" + StorageConstants.STORAGE_PATH + "/upload");
             }
 
-            storageService.uploadObject(file);
+            // The request thread is released while the transfer is in flight
+            return storageService.uploadObjectAsync(file).handle((ignored, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    redirectAttributes.addFlashAttribute("error", "Failed to upload file: " + cause.getMessage());
+                    return "redirect:/" + StorageConstants.STORAGE_PATH + "/upload";
+                }
+                redirectAttributes.addFlashAttribute("success", "File uploaded successfully");
+                return "redirect:/" + StorageConstants.STORAGE_PATH;
+            });
+        } catch (IOException e) {
+            redirectAttributes.addFlashAttribute("error", "Failed to upload file: " + e.getMessage());
+            return CompletableFuture.completedFuture("redirect:/" + StorageConstants.STORAGE_PATH + "/upload");
+        }
+    }
+    
+    /**
+     * Upload form target that pipes the file into storage while the request is parsed,
+     * rather than after it has been buffered
+     */
+    @PostMapping(value = "/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public String uploadObjectStream(HttpServletRequest request, RedirectAttributes redirectAttributes) {
+        try {
+            streamingUploadService.upload(request, "file");
             redirectAttributes.addFlashAttribute("success", "File uploaded successfully");
             return "redirect:/" + StorageConstants.STORAGE_PATH;
         } catch (IOException e) {
@@ -54,43 +143,257 @@ public class S3Controller {
             return "redirect:/" + StorageConstants.STORAGE_PATH + "/upload";
         }
     }
+
+    /**
+     * Start an upload the client sends straight to storage, so no image bytes pass through
+     * this application. The client then PUTs the file to the returned URL and completes it.
+     */
+    @PostMapping("/uploads")
+    @ResponseBody
+    public ResponseEntity<UploadIntent> createUploadIntent(@RequestBody UploadIntentRequest request) {
+        if (!StringUtils.hasText(request.getFilename())
+                || request.getContentType() == null || !request.getContentType().startsWith("image/")
+                || request.getSize() <= 0 || request.getSize() > maxDirectUploadSize.toBytes()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            UploadIntent intent = storageService.createUploadIntent(
+                    request.getFilename(), request.getContentType(), request.getSize());
+            if (storageService.isThumbnailKey(intent.getKey())) {
+                return ResponseEntity.badRequest().build();
+            }
+            return ResponseEntity.ok(intent);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Record and queue an object for processing once the client has uploaded its bytes,
+     * identified by the token of its upload intent
+     */
+    @PostMapping("/uploads/{token}/complete")
+    @ResponseBody
+    public ResponseEntity<UploadResult> completeUpload(@PathVariable String token) {
+        try {
+            return ResponseEntity.ok(storageService.completeUpload(token));
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new UploadResult(null, null, null, 0, e.getMessage()));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new UploadResult(null, null, null, 0, e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload many files in one request, reporting the outcome of each
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public List<UploadResult> uploadObjects(@RequestParam("files") List<MultipartFile> files) {
+        return bulkUploadService.uploadFiles(files);
+    }
+
+    /**
+     * Upload the images of a ZIP archive sent as the request body, read as it streams in
+     */
+    @PostMapping(value = "/bulk", consumes = {"application/zip", "application/x-zip-compressed"})
+    @ResponseBody
+    public List<UploadResult> uploadArchive(HttpServletRequest request) throws IOException {
+        return bulkUploadService.uploadArchive(request.getInputStream());
+    }
     
     @GetMapping("/view-page/{key}")
     public String viewObjectPage(@PathVariable String key, Model model, RedirectAttributes redirectAttributes) {
         try {
-            // Find the object in the list of objects
-            Optional<S3StorageItem> foundObject = storageService.listObjects().stream()
-                    .filter(obj -> obj.getKey().equals(key))
-                    .findFirst();
-            
-            if (foundObject.isPresent()) {
-                model.addAttribute("object", foundObject.get());
-                return "view";
-            } else {
-                redirectAttributes.addFlashAttribute("error", "Image not found");
-                return "redirect:/" + StorageConstants.STORAGE_PATH;
-            }
+            model.addAttribute("object", storageService.getObjectInfo(key));
+            return "view";
+        } catch (FileNotFoundException e) {
+            redirectAttributes.addFlashAttribute("error", "Image not found");
+            return "redirect:/" + StorageConstants.STORAGE_PATH;
         } catch (Exception e) {
             redirectAttributes.addFlashAttribute("error", "Failed to view image: " + e.getMessage());
             return "redirect:/" + StorageConstants.STORAGE_PATH;
         }
     }
 
+    /**
+     * Serves the object, or with w and/or h a rendition of it resized to fit that box
+     * (fit=contain, cover or fill)
+     */
     @GetMapping("/view/{key}")
-    public ResponseEntity<InputStreamResource> viewObject(@PathVariable String key) {
+    public ResponseEntity<?> viewObject(@PathVariable String key, @RequestHeader HttpHeaders requestHeaders,
+                                        @RequestParam(required = false) Integer w,
+                                        @RequestParam(required = false) Integer h,
+                                        @RequestParam(required = false) String fit,
+                                        ServletWebRequest webRequest) {
+        S3StorageItem object;
         try {
-            InputStream inputStream = storageService.getObject(key);
-            
-            HttpHeaders headers = new HttpHeaders();
-            // Use a generic content type if we don't know the exact type
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(new InputStreamResource(inputStream));
+            object = storageService.headObject(key);
         } catch (IOException e) {
             return ResponseEntity.notFound().build();
         }
+        if (w != null || h != null) {
+            return viewRendition(object, w, h, fit, webRequest);
+        }
+
+        long lastModified = object.getLastModified() != null ? object.getLastModified().toEpochMilli() : -1;
+        if (webRequest.checkNotModified(object.getETag(), lastModified)) {
+            // 304 with validators has already been written
+            return null;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(object.getContentType() != null
+                ? MediaType.parseMediaType(object.getContentType())
+                : MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setCacheControl(CacheControl.noCache());
+        if (object.getETag() != null) {
+            headers.setETag(object.getETag());
+        }
+        if (lastModified >= 0) {
+            headers.setLastModified(lastModified);
+        }
+
+        long size = object.getSize();
+        long start = 0;
+        long length = size;
+        HttpStatus status = HttpStatus.OK;
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            // Malformed Range headers are ignored
+            ranges = Collections.emptyList();
+        }
+        if (!ranges.isEmpty() && !ifRangeMatches(requestHeaders, object.getETag(), lastModified)) {
+            // The client holds a different version, a slice of this one would corrupt its copy
+            ranges = Collections.emptyList();
+        }
+        if (!ranges.isEmpty()) {
+            // Multiple ranges are coalesced into the single region spanning them, ranges
+            // starting past the end are skipped and if none is left the request fails
+            long end = -1;
+            start = Long.MAX_VALUE;
+            try {
+                for (HttpRange range : ranges) {
+                    long rangeStart = range.getRangeStart(size);
+                    if (rangeStart < size) {
+                        start = Math.min(start, rangeStart);
+                        end = Math.max(end, range.getRangeEnd(size));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                end = -1;
+            }
+            if (end < 0) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                        .build();
+            }
+            length = end - start + 1;
+            status = HttpStatus.PARTIAL_CONTENT;
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+        headers.setContentLength(length);
+
+        HttpServletRequest request = webRequest.getRequest();
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            return new ResponseEntity<>(headers, status);
+        }
+
+        try {
+            Optional<Path> localFile = storageService.getLocalFile(key);
+            if (localFile.isPresent()) {
+                if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                    // Tomcat writes the region with FileChannel.transferTo after the handler returns
+                    request.setAttribute(SENDFILE_FILENAME, localFile.get().toString());
+                    request.setAttribute(SENDFILE_START, start);
+                    request.setAttribute(SENDFILE_END, start + length);
+                    return new ResponseEntity<>(headers, status);
+                }
+                // Spring slices Resource bodies of Range requests itself, ignoring If-Range,
+                // so only whole-file responses to plain requests are returned as a Resource
+                if (status == HttpStatus.OK && !requestHeaders.containsKey(HttpHeaders.RANGE)) {
+                    return new ResponseEntity<>(new FileSystemResource(localFile.get()), headers, status);
+                }
+            }
+
+            InputStream inputStream = status == HttpStatus.PARTIAL_CONTENT
+                    ? storageService.getObject(key, start, length)
+                    : storageService.getObject(key);
+            return new ResponseEntity<>(new InputStreamResource(inputStream), headers, status);
+        } catch (IOException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Whether a Range request may be served as a slice: no If-Range, or an If-Range naming the
+     * current version by strong ETag or by exact Last-Modified date (RFC 7233, section 3.2)
+     */
+    private static boolean ifRangeMatches(HttpHeaders requestHeaders, String eTag, long lastModified) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (!StringUtils.hasText(ifRange)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Weak validators never match
+            return eTag != null && !eTag.startsWith("W/") && ifRange.equals(eTag);
+        }
+        long date;
+        try {
+            date = requestHeaders.getFirstDate(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have second precision
+        return date >= 0 && lastModified >= 0 && date == lastModified / 1000 * 1000;
+    }
+
+    private ResponseEntity<?> viewRendition(S3StorageItem object, Integer w, Integer h, String fitName,
+                                            ServletWebRequest webRequest) {
+        Fit fit;
+        try {
+            fit = renditionService.fit(fitName);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Tied to the source version, so replacing the original changes it
+        String sourceETag = object.getETag() != null ? object.getETag().replace("\"", "") : "";
+        String eTag = "\"" + sourceETag + "-" + (w != null ? w : "") + "x" + (h != null ? h : "")
+                + "-" + fit.name().toLowerCase(Locale.ROOT) + "\"";
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+
+        Rendition rendition;
+        try {
+            rendition = renditionService.getRendition(object.getKey(), sourceETag, w, h, fit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            // Storage or the rendition cache failed, the object itself is there
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(rendition.getContentType()));
+        headers.setContentLength(rendition.getContent().length);
+        headers.setCacheControl(CacheControl.noCache());
+        headers.setETag(eTag);
+        if (HttpMethod.HEAD.matches(webRequest.getRequest().getMethod())) {
+            return new ResponseEntity<>(headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(rendition.getContent(), headers, HttpStatus.OK);
     }
 
     @PostMapping("/delete/{key}")
@@ -3,13 +3,19 @@ package com.microsoft.migration.assets.model;
 import javax.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
 
 @Entity
+@Table(indexes = @Index(name = "idx_image_metadata_s3_key", columnList = "s3Key", unique = true))
 @Data
 @NoArgsConstructor
-public class ImageMetadata {
+public class ImageMetadata implements Persistable<String> {
     @Id
     private String id;
     private String filename;
@@ -17,11 +23,29 @@ public class ImageMetadata {
     private Long size;
     private String s3Key;
     private String s3Url;
+    private String checksum;
     private String thumbnailKey;
     private String thumbnailUrl;
+    @ElementCollection(fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SUBSELECT)
+    @CollectionTable(name = "image_metadata_rendition", joinColumns = @JoinColumn(name = "image_metadata_id"))
+    @MapKeyColumn(name = "rendition_size")
+    @Column(name = "rendition_key")
+    private Map<Integer, String> renditionKeys = new HashMap<>();
     private LocalDateTime uploadedAt;
     private LocalDateTime lastModified;
 
+    /**
+     * Ids are assigned before saving, so newness is told by the creation timestamp. This lets
+     * save and saveAll persist new rows directly, and batch the inserts, rather than merging
+     * each one after a select.
+     */
+    @Override
+    @Transient
+    public boolean isNew() {
+        return uploadedAt == null;
+    }
+
     @PrePersist
     protected void onCreate() {
         uploadedAt = LocalDateTime.now();
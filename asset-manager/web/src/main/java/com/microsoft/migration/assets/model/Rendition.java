@@ -0,0 +1,14 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * An encoded, resized copy of a stored image
+ */
+@Data
+@AllArgsConstructor
+public class Rendition {
+    private final byte[] content;
+    private final String contentType;
+}
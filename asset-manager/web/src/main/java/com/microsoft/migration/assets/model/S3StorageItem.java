@@ -16,4 +16,16 @@ public class S3StorageItem {
     private Instant lastModified;
     private Instant uploadedAt;
     private String url;
-}
\ No newline at end of file
+    private String contentType;
+    private String eTag;
+    private String thumbnailUrl; // null while the thumbnail has not been generated
+
+    public S3StorageItem(String key, String name, long size, Instant lastModified, Instant uploadedAt, String url) {
+        this(key, name, size, lastModified, uploadedAt, url, null, null, null);
+    }
+
+    public S3StorageItem(String key, String name, long size, Instant lastModified, Instant uploadedAt, String url,
+                         String contentType, String eTag) {
+        this(key, name, size, lastModified, uploadedAt, url, contentType, eTag, null);
+    }
+}
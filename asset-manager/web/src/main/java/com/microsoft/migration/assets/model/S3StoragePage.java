@@ -0,0 +1,22 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of a storage listing. The continuation token is null on the last page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class S3StoragePage {
+    private List<S3StorageItem> items;
+    private String continuationToken;
+
+    public boolean isLast() {
+        return continuationToken == null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Objects the worker wrote to storage, published once an image's thumbnails are stored
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageEvent {
+    private String storageType; // "s3" or "local"
+    private String originalKey;
+    private List<String> keys;
+}
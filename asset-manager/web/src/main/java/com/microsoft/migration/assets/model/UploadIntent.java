@@ -0,0 +1,25 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Where and how a client uploads an object's bytes directly to storage. The client sends
+ * them with the given method and headers before the URL expires, then completes the upload
+ * with the signed token, which names the object and what may be stored under it.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadIntent {
+    private String key;
+    private String url;
+    private String method;
+    private Map<String, String> headers;
+    private Instant expiresAt;
+    private String token;
+}
@@ -0,0 +1,17 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The file a client is about to upload directly to storage
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadIntentRequest {
+    private String filename;
+    private String contentType;
+    private long size;
+}
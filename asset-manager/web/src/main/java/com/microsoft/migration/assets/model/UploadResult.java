@@ -0,0 +1,28 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of uploading one file. The key is null and the error set when the upload failed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadResult {
+    private String filename;
+    private String key;
+    private String contentType;
+    private long size;
+    private String error;
+    private String checksum; // SHA-256 of the content, when computed while streaming it in
+
+    public UploadResult(String filename, String key, String contentType, long size, String error) {
+        this(filename, key, contentType, size, error, null);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -3,56 +3,127 @@ package com.microsoft.migration.assets.service;
 import com.microsoft.migration.assets.model.ImageMetadata;
 import com.microsoft.migration.assets.model.ImageProcessingMessage;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import com.microsoft.migration.assets.model.UploadIntent;
+import com.microsoft.migration.assets.model.UploadResult;
 import com.microsoft.migration.assets.repository.ImageMetadataRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.BlockingInputStreamAsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.microsoft.migration.assets.config.RabbitConfig.IMAGE_PROCESSING_QUEUE;
-
 @Service
 @RequiredArgsConstructor
 @Profile("!dev") // Active when not in dev profile
 public class AwsS3Service implements StorageService {
 
     private final S3Client s3Client;
-    private final RabbitTemplate rabbitTemplate;
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Presigner s3Presigner;
+    private final ExecutorService s3UploadExecutor;
+    private final ExecutorService s3AnnounceExecutor;
+    private final ImageProcessingPublisher imageProcessingPublisher;
     private final ImageMetadataRepository imageMetadataRepository;
+    private final ListingCache listingCache;
+    private final UploadTokens uploadTokens;
 
     @Value("${aws.s3.bucket}")
     private String bucketName;
 
+    @Value("${aws.s3.presign.expiry:15m}")
+    private Duration presignExpiry = Duration.ofMinutes(15);
+
+    /**
+     * Thumbnails are skipped, so a page is filled from as many ListObjectsV2 calls as it takes.
+     * Once the page is full, the thumbnails following its last original are still read, up to
+     * the next original, so that original gets its thumbnail too. The continuation token is
+     * the last key examined and is passed back as StartAfter.
+     */
     @Override
-    public List<S3StorageItem> listObjects() {
-        ListObjectsV2Request request = ListObjectsV2Request.builder()
-                .bucket(bucketName)
-                .build();
+    public S3StoragePage listObjects(String prefix, int pageSize, String continuationToken) {
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        List<S3Object> originals = new ArrayList<>();
+        Set<String> keysSeen = new HashSet<>();
+        String lastKey = continuationToken;
+        boolean truncated = true;
+        boolean nextOriginalSeen = false;
+
+        while (!nextOriginalSeen && truncated) {
+            // An original is usually followed by its thumbnail and renditions
+            ListObjectsV2Request request = ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix)
+                    .maxKeys(Math.min(MAX_PAGE_SIZE, limit * 4))
+                    .startAfter(lastKey)
+                    .build();
 
-        ListObjectsV2Response response = s3Client.listObjectsV2(request);
+            ListObjectsV2Response response = s3Client.listObjectsV2(request);
+            truncated = Boolean.TRUE.equals(response.isTruncated()) && !response.contents().isEmpty();
+            for (S3Object s3Object : response.contents()) {
+                boolean thumbnail = isThumbnailKey(s3Object.key());
+                if (originals.size() == limit && !thumbnail) {
+                    // The next page starts with this original
+                    nextOriginalSeen = true;
+                    truncated = true;
+                    break;
+                }
+                lastKey = s3Object.key();
+                keysSeen.add(lastKey);
+                if (!thumbnail) {
+                    originals.add(s3Object);
+                }
+            }
+        }
+
+        // Fetch metadata for every original on this page in a single query
+        List<String> keys = originals.stream()
+                .map(S3Object::key)
+                .collect(Collectors.toList());
+        Map<String, ImageMetadata> metadataByKey = keys.isEmpty()
+                ? Collections.emptyMap()
+                : imageMetadataRepository.findByS3KeyIn(keys).stream()
+                        .collect(Collectors.toMap(ImageMetadata::getS3Key, Function.identity()));
 
-        return response.contents().stream()
+        List<S3StorageItem> items = originals.stream()
                 .map(s3Object -> {
                     // Try to get metadata for upload time
-                    Instant uploadedAt = imageMetadataRepository.findAll().stream()
-                            .filter(metadata -> metadata.getS3Key().equals(s3Object.key()))
-                            .map(metadata -> metadata.getUploadedAt().atZone(java.time.ZoneId.systemDefault()).toInstant())
-                            .findFirst()
-                            .orElse(s3Object.lastModified()); // fallback to lastModified if metadata not found
+                    ImageMetadata metadata = metadataByKey.get(s3Object.key());
+                    Instant uploadedAt = metadata != null && metadata.getUploadedAt() != null
+                            ? metadata.getUploadedAt().atZone(java.time.ZoneId.systemDefault()).toInstant()
+                            : s3Object.lastModified(); // fallback to lastModified if metadata not found
 
-                    return new S3StorageItem(
+                    S3StorageItem item = new S3StorageItem(
                             s3Object.key(),
                             extractFilename(s3Object.key()),
                             s3Object.size(),
@@ -60,40 +131,175 @@ public class AwsS3Service implements StorageService {
                             uploadedAt,
                             generateUrl(s3Object.key())
                     );
+
+                    // The worker records the thumbnail it wrote, otherwise rely on the naming convention
+                    String thumbnailKey = metadata != null && metadata.getThumbnailKey() != null
+                            ? metadata.getThumbnailKey()
+                            : keysSeen.contains(getThumbnailKey(s3Object.key())) ? getThumbnailKey(s3Object.key()) : null;
+                    if (thumbnailKey != null) {
+                        item.setThumbnailUrl(generateUrl(thumbnailKey));
+                    }
+                    return item;
                 })
                 .collect(Collectors.toList());
+
+        return new S3StoragePage(items, truncated ? lastKey : null);
+    }
+
+    /**
+     * The transfer completes on an SDK thread, so the object is announced on the announce
+     * executor rather than blocking that thread on the database and broker
+     */
+    @Override
+    public CompletableFuture<Void> uploadObjectAsync(MultipartFile file) throws IOException {
+        return storeObject(file).thenAcceptAsync(key -> objectsStored(Collections.singletonList(new UploadResult(
+                file.getOriginalFilename(), key, file.getContentType(), file.getSize(), null))), s3AnnounceExecutor);
     }
 
     @Override
     public void uploadObject(MultipartFile file) throws IOException {
+        try {
+            uploadObjectAsync(file).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to upload " + file.getOriginalFilename(), cause);
+        }
+    }
+
+    /**
+     * Streams the file to S3 through the async client, which splits large files into parts
+     * uploaded in parallel. The request body is read on the upload executor, so no request
+     * thread is held while the transfer is in flight.
+     */
+    @Override
+    public CompletableFuture<String> storeObject(MultipartFile file) throws IOException {
         String key = generateKey(file.getOriginalFilename());
+        
         PutObjectRequest request = PutObjectRequest.builder()
                 .bucket(bucketName)
                 .key(key)
                 .contentType(file.getContentType())
                 .build();
-        
-        s3Client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
-
-        // Send message to queue for thumbnail generation
-        ImageProcessingMessage message = new ImageProcessingMessage(
-            key,
-            file.getContentType(),
-            getStorageType(),
-            file.getSize()
-        );
-        rabbitTemplate.convertAndSend(IMAGE_PROCESSING_QUEUE, message);
 
-        // Create and save metadata to database
-        ImageMetadata metadata = new ImageMetadata();
-        metadata.setId(UUID.randomUUID().toString());
-        metadata.setFilename(file.getOriginalFilename());
-        metadata.setContentType(file.getContentType());
-        metadata.setSize(file.getSize());
-        metadata.setS3Key(key);
-        metadata.setS3Url(generateUrl(key));
+        AsyncRequestBody body = AsyncRequestBody.fromInputStream(file.getInputStream(), file.getSize(), s3UploadExecutor);
+        return s3AsyncClient.putObject(request, body).thenApply(response -> key);
+    }
+
+    /**
+     * Feeds the stream to the async client on the calling thread. Its multipart support
+     * buffers at most a couple of parts and uploads them as they fill, so the object is never
+     * held whole in memory or on disk.
+     */
+    @Override
+    public UploadResult storeStream(String filename, String contentType, InputStream in) throws IOException {
+        String key = generateKey(filename);
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+
+        BlockingInputStreamAsyncRequestBody body = AsyncRequestBody.forBlockingInputStream(null);
+        CompletableFuture<PutObjectResponse> upload = s3AsyncClient.putObject(request, body);
+        ChecksumInputStream source = new ChecksumInputStream(in);
+        try {
+            body.writeInputStream(source);
+            upload.join();
+        } catch (RuntimeException e) {
+            // Reading the request failed or S3 rejected the upload, either way abort it
+            upload.cancel(true);
+            Throwable cause = e instanceof CompletionException || e instanceof UncheckedIOException ? e.getCause() : e;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to upload " + filename, cause);
+        }
+        return new UploadResult(filename, key, contentType, source.getSize(), null, source.getChecksum());
+    }
+
+    @Override
+    public void objectsStored(List<UploadResult> stored) {
+        List<ImageMetadata> batch = new ArrayList<>(stored.size());
+        for (UploadResult object : stored) {
+            // Send message to queue for thumbnail generation
+            ImageProcessingMessage message = new ImageProcessingMessage(
+                object.getKey(),
+                object.getContentType(),
+                getStorageType(),
+                object.getSize()
+            );
+            imageProcessingPublisher.publish(message);
+
+            // Create metadata, saved below in one batched insert
+            ImageMetadata metadata = new ImageMetadata();
+            metadata.setId(UUID.randomUUID().toString());
+            metadata.setFilename(object.getFilename());
+            metadata.setContentType(object.getContentType());
+            metadata.setSize(object.getSize());
+            metadata.setS3Key(object.getKey());
+            metadata.setS3Url(generateUrl(object.getKey()));
+            metadata.setChecksum(object.getChecksum());
+            batch.add(metadata);
+        }
 
-        imageMetadataRepository.save(metadata);
+        imageMetadataRepository.saveAll(batch);
+        stored.forEach(object -> listingCache.invalidate(object.getKey()));
+    }
+
+    /**
+     * Presigns a PUT for a new key. Content type and length are signed, so S3 rejects an
+     * upload that does not match what was declared.
+     */
+    @Override
+    public UploadIntent createUploadIntent(String filename, String contentType, long size) {
+        String key = generateKey(StringUtils.getFilename(filename));
+        PutObjectPresignRequest presignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(presignExpiry)
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .contentType(contentType)
+                        .contentLength(size)
+                        .build())
+                .build();
+
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(presignRequest);
+        Map<String, String> headers = new LinkedHashMap<>();
+        presigned.signedHeaders().forEach((name, values) -> {
+            // Clients set Host and Content-Length themselves
+            if (!"host".equalsIgnoreCase(name) && !"content-length".equalsIgnoreCase(name)) {
+                headers.put(name, String.join(",", values));
+            }
+        });
+        return new UploadIntent(key, presigned.url().toString(), presigned.httpRequest().method().name(),
+                headers, presigned.expiration(), uploadTokens.issue(key, contentType, size, presigned.expiration()));
+    }
+
+    /**
+     * Announces an object once per token, after checking it is the image the token was
+     * issued for. The metadata lookup also catches completions handled by other instances.
+     */
+    @Override
+    public UploadResult completeUpload(String token) throws IOException {
+        UploadTokens.SignedUpload upload = uploadTokens.verifyCompletion(token);
+        String key = upload.getKey();
+        S3StorageItem object = headObject(key);
+        if (!upload.matches(object)) {
+            throw new IllegalArgumentException("Stored object does not match the upload intent");
+        }
+        UploadResult result = new UploadResult(originalFilename(key), key, object.getContentType(), object.getSize(), null);
+        if (uploadTokens.claim(token) && !imageMetadataRepository.findByS3Key(key).isPresent()) {
+            try {
+                objectsStored(Collections.singletonList(result));
+            } catch (RuntimeException e) {
+                uploadTokens.release(token);
+                throw e;
+            }
+        }
+        return result;
     }
 
     @Override
@@ -103,6 +309,61 @@ public class AwsS3Service implements StorageService {
                 .key(key)
                 .build();
         
+        try {
+            return s3Client.getObject(request);
+        } catch (NoSuchKeyException e) {
+            throw new FileNotFoundException("Object not found: " + key);
+        }
+    }
+
+    @Override
+    public S3StorageItem getObjectInfo(String key) throws IOException {
+        S3StorageItem item = headObject(key);
+        // Indexed lookup on s3Key, rather than scanning the listing
+        imageMetadataRepository.findByS3Key(key)
+                .filter(metadata -> metadata.getUploadedAt() != null)
+                .ifPresent(metadata -> item.setUploadedAt(
+                        metadata.getUploadedAt().atZone(java.time.ZoneId.systemDefault()).toInstant()));
+        return item;
+    }
+
+    @Override
+    public S3StorageItem headObject(String key) throws IOException {
+        HeadObjectRequest request = HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+
+        HeadObjectResponse response;
+        try {
+            response = s3Client.headObject(request);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                throw new FileNotFoundException("Object not found: " + key);
+            }
+            throw e;
+        }
+
+        return new S3StorageItem(
+                key,
+                extractFilename(key),
+                response.contentLength(),
+                response.lastModified(),
+                response.lastModified(),
+                generateUrl(key),
+                response.contentType(),
+                response.eTag()
+        );
+    }
+
+    @Override
+    public InputStream getObject(String key, long offset, long length) throws IOException {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .range("bytes=" + offset + "-" + (offset + length - 1))
+                .build();
+
         return s3Client.getObject(request);
     }
 
@@ -116,22 +377,30 @@ public class AwsS3Service implements StorageService {
         
         s3Client.deleteObject(request);
 
-        try {
-            // Try to delete thumbnail if it exists
-            DeleteObjectRequest thumbnailRequest = DeleteObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(getThumbnailKey(key))
-                    .build();
-            s3Client.deleteObject(thumbnailRequest);
-        } catch (Exception e) {
-            // Ignore if thumbnail doesn't exist
+        Optional<ImageMetadata> metadata = imageMetadataRepository.findByS3Key(key);
+
+        // Delete the thumbnail and any other renditions recorded by the worker
+        Set<String> derivedKeys = new HashSet<>();
+        derivedKeys.add(getThumbnailKey(key));
+        metadata.ifPresent(m -> derivedKeys.addAll(m.getRenditionKeys().values()));
+        for (String derivedKey : derivedKeys) {
+            try {
+                // Try to delete thumbnail if it exists
+                DeleteObjectRequest thumbnailRequest = DeleteObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(derivedKey)
+                        .build();
+                s3Client.deleteObject(thumbnailRequest);
+            } catch (Exception e) {
+                // Ignore if thumbnail doesn't exist
+            }
         }
 
         // Delete metadata from database
-        imageMetadataRepository.findAll().stream()
-                .filter(metadata -> metadata.getS3Key().equals(key))
-                .findFirst()
-                .ifPresent(metadata -> imageMetadataRepository.delete(metadata));
+        metadata.ifPresent(m -> imageMetadataRepository.delete(m));
+
+        listingCache.invalidate(key);
+        derivedKeys.forEach(listingCache::invalidate);
     }
 
     @Override
@@ -145,6 +414,14 @@ public class AwsS3Service implements StorageService {
         return lastSlashIndex >= 0 ? key.substring(lastSlashIndex + 1) : key;
     }
 
+    /**
+     * Filename the client uploaded, without the unique prefix of the key
+     */
+    private String originalFilename(String key) {
+        String filename = extractFilename(key);
+        return filename.length() > 37 && filename.charAt(36) == '-' ? filename.substring(37) : filename;
+    }
+
     private String generateKey(String filename) {
         return UUID.randomUUID().toString() + "-" + filename;
     }
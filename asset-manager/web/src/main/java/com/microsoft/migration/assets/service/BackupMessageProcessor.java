@@ -9,7 +9,7 @@ import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
-import static com.microsoft.migration.assets.config.RabbitConfig.IMAGE_PROCESSING_QUEUE;
+import static com.microsoft.migration.assets.config.RabbitConfig.IMAGE_PROCESSING_BACKUP_QUEUE;
 
 import java.io.IOException;
 
@@ -25,9 +25,10 @@ public class BackupMessageProcessor {
 
     /**
      * Processes image messages from a backup queue for monitoring and resilience purposes.
+     * The backup queue is bound to every storage type, so it sees a copy of each message.
      * Uses the same RabbitMQ API pattern as the worker module.
      */
-    @RabbitListener(queues = IMAGE_PROCESSING_QUEUE)
+    @RabbitListener(queues = IMAGE_PROCESSING_BACKUP_QUEUE)
     public void processBackupMessage(final ImageProcessingMessage message, 
                                     Channel channel, 
                                     @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
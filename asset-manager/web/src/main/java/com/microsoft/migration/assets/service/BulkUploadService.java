@@ -0,0 +1,201 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.UploadResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Uploads many files in one request. Objects are written in parallel, with at most
+ * the configured number in flight, and announced in batches: one round of queued
+ * processing messages and one batched metadata insert per batch.
+ */
+@Slf4j
+@Service
+public class BulkUploadService {
+
+    private final StorageService storageService;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+    @Value("${storage.bulk.batch-size:100}")
+    private int batchSize = 100;
+
+    /**
+     * Most files taken from one archive
+     */
+    @Value("${storage.bulk.max-entries:10000}")
+    private int maxEntries = 10000;
+
+    @Value("${storage.bulk.max-entry-size:${spring.servlet.multipart.max-file-size:512MB}}")
+    private DataSize maxEntrySize = DataSize.ofMegabytes(512);
+
+    public BulkUploadService(StorageService storageService,
+                             @Value("${storage.bulk.concurrency:8}") int concurrency) {
+        this.storageService = storageService;
+        this.inFlight = new Semaphore(concurrency);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Upload the files, reporting one result per file in the same order
+     */
+    public List<UploadResult> uploadFiles(List<MultipartFile> files) {
+        Batch batch = new Batch();
+        for (MultipartFile file : files) {
+            inFlight.acquireUninterruptibly();
+            batch.submit(file, null);
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Upload the images in a ZIP stream, reporting one result per image in archive order.
+     * Entries are spooled to temporary files, so reading the archive waits for uploads to
+     * free a slot rather than buffering it in memory. Directories and hidden files are skipped.
+     */
+    public List<UploadResult> uploadArchive(InputStream archive) {
+        Batch batch = new Batch();
+        int entries = 0;
+        try (ZipInputStream zip = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String filename = StringUtils.getFilename(entry.getName());
+                if (entry.isDirectory() || !StringUtils.hasText(filename) || filename.startsWith(".")
+                        || entry.getName().startsWith("__MACOSX/")) {
+                    continue;
+                }
+                if (++entries > maxEntries) {
+                    batch.failed(filename, "Archive holds more than " + maxEntries + " files, the rest were skipped");
+                    break;
+                }
+                String contentType = MediaTypeFactory.getMediaType(filename)
+                        .map(MediaType::toString)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                if (!contentType.startsWith("image/")) {
+                    batch.failed(filename, "Not an image");
+                    continue;
+                }
+
+                inFlight.acquireUninterruptibly();
+                SpooledFile file;
+                try {
+                    file = SpooledFile.spool(zip, filename, contentType, maxEntrySize.toBytes());
+                } catch (IOException e) {
+                    inFlight.release();
+                    batch.failed(filename, e.getMessage());
+                    continue;
+                }
+                batch.submit(file, file::delete);
+            }
+        } catch (IOException e) {
+            // Keep what was read before the archive broke off
+            log.warn("Could not read upload archive: {}", e.getMessage());
+            batch.failed(null, "Could not read archive: " + e.getMessage());
+        }
+        return batch.finish();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Results of one bulk upload, and the stored objects waiting to be announced
+     */
+    private class Batch {
+
+        private final List<CompletableFuture<UploadResult>> results = new ArrayList<>();
+        private final BlockingQueue<UploadResult> stored = new LinkedBlockingQueue<>();
+
+        /**
+         * Store the file on the executor, the caller holds an in-flight permit
+         */
+        void submit(MultipartFile file, Runnable cleanup) {
+            CompletableFuture<UploadResult> result = CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            return storageService.storeObject(file);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor)
+                    .thenCompose(Function.identity())
+                    .handle((key, error) -> {
+                        inFlight.release();
+                        if (cleanup != null) {
+                            cleanup.run();
+                        }
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause() : error;
+                            log.warn("Bulk upload of {} failed: {}", file.getOriginalFilename(), cause.getMessage());
+                            return new UploadResult(file.getOriginalFilename(), null, file.getContentType(),
+                                    file.getSize(), cause.getMessage());
+                        }
+                        UploadResult uploaded = new UploadResult(file.getOriginalFilename(), key,
+                                file.getContentType(), file.getSize(), null);
+                        stored.add(uploaded);
+                        return uploaded;
+                    });
+            results.add(result);
+
+            // Announce full batches while the rest are still uploading
+            while (stored.size() >= batchSize) {
+                announce();
+            }
+        }
+
+        void failed(String filename, String error) {
+            results.add(CompletableFuture.completedFuture(new UploadResult(filename, null, null, 0, error)));
+        }
+
+        List<UploadResult> finish() {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+            while (!stored.isEmpty()) {
+                announce();
+            }
+            return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        }
+
+        private void announce() {
+            List<UploadResult> objects = new ArrayList<>(batchSize);
+            stored.drainTo(objects, batchSize);
+            try {
+                storageService.objectsStored(objects);
+            } catch (RuntimeException e) {
+                log.error("Could not register {} stored objects", objects.size(), e);
+                objects.forEach(object -> object.setError("Stored, but could not be registered: " + e.getMessage()));
+            }
+        }
+    }
+}
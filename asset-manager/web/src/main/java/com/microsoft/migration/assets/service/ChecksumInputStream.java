@@ -0,0 +1,72 @@
+package com.microsoft.migration.assets.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Counts and digests the bytes read through it, so a stream's size and SHA-256 checksum are
+ * known once it has been consumed, without reading it twice
+ */
+class ChecksumInputStream extends FilterInputStream {
+
+    private final MessageDigest digest;
+    private long size;
+
+    ChecksumInputStream(InputStream in) {
+        super(in);
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            digest.update((byte) b);
+            size++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            digest.update(b, off, read);
+            size += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would be missing from the checksum
+        throw new IOException("Skipping is not supported while computing a checksum");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Hex SHA-256 of everything read, call once the stream is consumed
+     */
+    String getChecksum() {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,465 @@
+package com.microsoft.migration.assets.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.microsoft.migration.assets.config.RabbitConfig.IMAGE_PROCESSING_EXCHANGE;
+
+/**
+ * Publishes image-processing messages off the request thread.
+ * Messages are buffered in memory and a dispatcher thread publishes them in batches on one
+ * channel, then waits for the broker's publisher confirms. Nacked or unconfirmed batches are
+ * retried with backoff. When a batch keeps failing, or the buffer is full, messages go to a
+ * local spill file, synced to disk, and new messages follow them there until the broker is
+ * back and the file has been replayed. Spill writes are group-committed: one thread appends
+ * everything queued for the file with a single sync while the others wait for it, so an
+ * outage costs one sync per group rather than per upload. Delivery is at least once: a
+ * replay interrupted by another outage publishes its messages again, which the worker
+ * tolerates.
+ */
+@Slf4j
+@Component
+public class ImageProcessingPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+    private final BlockingDeque<Pending> buffer;
+    private final Timer publishLatency;
+    private final Counter retries;
+    private final Counter spilledTotal;
+
+    @Value("${image.processing.publisher.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${image.processing.publisher.confirm-timeout:10s}")
+    private Duration confirmTimeout = Duration.ofSeconds(10);
+
+    @Value("${image.processing.publisher.max-attempts:3}")
+    private int maxAttempts = 3;
+
+    @Value("${image.processing.publisher.retry-backoff:1s}")
+    private Duration initialBackoff = Duration.ofSeconds(1);
+
+    @Value("${image.processing.publisher.max-retry-backoff:30s}")
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    @Value("${image.processing.publisher.spill-file:spill/image-processing.jsonl}")
+    private String spillFileName;
+
+    private Path spillFile;
+
+    /**
+     * Spill file being replayed, kept until every message in it has been confirmed
+     */
+    private Path replayFile;
+
+    /**
+     * Guards the spilling flag and the spill queue, and is notified when a group is written
+     */
+    private final Object spillLock = new Object();
+
+    private volatile boolean spilling;
+
+    /**
+     * Messages waiting for the next group write to the spill file
+     */
+    private List<Pending> spillQueue = new ArrayList<>();
+
+    /**
+     * Tickets of the last message queued for and written to the spill file
+     */
+    private long spillQueued;
+    private long spillWritten;
+
+    /**
+     * Whether a thread is writing a group, only that thread touches the spill file then
+     */
+    private boolean spillWriting;
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private Thread dispatcher;
+
+    private volatile boolean running;
+
+    public ImageProcessingPublisher(RabbitTemplate rabbitTemplate,
+                                    ObjectMapper objectMapper,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${image.processing.publisher.buffer-size:10000}") int bufferSize) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+        this.buffer = new LinkedBlockingDeque<>(bufferSize);
+        this.publishLatency = Timer.builder("image.processing.publish.latency")
+                .description("Time from accepting an upload notification to its publisher confirm")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.retries = Counter.builder("image.processing.publish.retries")
+                .description("Batches published again after a nack, timeout or broker error")
+                .register(meterRegistry);
+        this.spilledTotal = Counter.builder("image.processing.publish.spilled")
+                .description("Messages written to the spill file while the broker was unavailable")
+                .register(meterRegistry);
+        Gauge.builder("image.processing.publish.backlog", buffer, BlockingDeque::size)
+                .description("Messages waiting to be published")
+                .tag("location", "memory")
+                .register(meterRegistry);
+        Gauge.builder("image.processing.publish.backlog", spilled, AtomicLong::get)
+                .description("Messages waiting to be published")
+                .tag("location", "spill")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        spillFile = Paths.get(spillFileName).toAbsolutePath().normalize();
+        replayFile = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        Files.createDirectories(spillFile.getParent());
+
+        // Anything left by a previous run is published before new messages
+        long left = countLines(spillFile) + countLines(replayFile);
+        if (left > 0) {
+            log.info("Found {} unpublished messages in {}, replaying them", left, spillFile);
+            spilled.set(left);
+            spilling = true;
+        }
+
+        running = true;
+        dispatcher = new Thread(this::dispatch, "image-processing-publisher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues a message for publishing, never blocking on the broker
+     */
+    public void publish(ImageProcessingMessage message) {
+        Pending pending = new Pending(message, System.nanoTime());
+        if (!spilling && buffer.offerLast(pending)) {
+            return;
+        }
+        long ticket;
+        synchronized (spillLock) {
+            // Re-check under the lock, the dispatcher may have just finished recovering
+            if (!spilling && buffer.offerLast(pending)) {
+                return;
+            }
+            if (!spilling) {
+                log.warn("Publish buffer is full, spilling to {}", spillFile);
+                spilling = true;
+            }
+            ticket = queueSpill(Collections.singletonList(pending));
+        }
+        awaitSpill(ticket);
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        int failures = 0;
+        while (running) {
+            try {
+                if (spilling) {
+                    recover();
+                    failures = 0;
+                    continue;
+                }
+
+                if (batch.isEmpty()) {
+                    Pending first = buffer.pollFirst(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                }
+
+                publishAndConfirm(batch);
+                long now = System.nanoTime();
+                for (Pending pending : batch) {
+                    publishLatency.record(now - pending.getAcceptedNanos(), TimeUnit.NANOSECONDS);
+                }
+                batch.clear();
+                failures = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                failures++;
+                retries.increment();
+                if (!batch.isEmpty() && failures >= maxAttempts) {
+                    log.warn("Could not publish {} messages after {} attempts, spilling to {}: {}",
+                            batch.size(), failures, spillFile, e.getMessage());
+                    startSpilling(batch);
+                    batch.clear();
+                } else {
+                    log.warn("Publishing failed (attempt {}), retrying: {}", failures, e.getMessage());
+                }
+                if (!sleep(backoff(failures))) {
+                    break;
+                }
+            }
+        }
+
+        // Keep whatever is still in memory for the next start
+        long ticket;
+        synchronized (spillLock) {
+            List<Pending> remaining = new ArrayList<>(batch);
+            buffer.drainTo(remaining);
+            if (remaining.isEmpty()) {
+                return;
+            }
+            log.info("Spilling {} unpublished messages to {} on shutdown", remaining.size(), spillFile);
+            ticket = queueSpill(remaining);
+        }
+        awaitSpill(ticket);
+    }
+
+    /**
+     * Publishes a batch on one channel, then waits for every confirm
+     */
+    private void publishAndConfirm(List<Pending> batch) throws Exception {
+        List<CorrelationData> confirms = rabbitTemplate.invoke(operations -> {
+            List<CorrelationData> correlations = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                CorrelationData correlation = new CorrelationData();
+                operations.convertAndSend(IMAGE_PROCESSING_EXCHANGE, pending.getMessage().getStorageType(),
+                        pending.getMessage(), correlation);
+                correlations.add(correlation);
+            }
+            return correlations;
+        });
+
+        long deadline = System.nanoTime() + confirmTimeout.toNanos();
+        for (CorrelationData correlation : confirms) {
+            long wait = Math.max(0, deadline - System.nanoTime());
+            CorrelationData.Confirm confirm = correlation.getFuture().get(wait, TimeUnit.NANOSECONDS);
+            if (!confirm.isAck()) {
+                throw new AmqpException("Broker nacked message: " + confirm.getReason());
+            }
+        }
+    }
+
+    /**
+     * Moves the failed batch and everything buffered behind it to the spill file
+     */
+    private void startSpilling(List<Pending> batch) {
+        long ticket;
+        synchronized (spillLock) {
+            spilling = true;
+            List<Pending> pending = new ArrayList<>(batch);
+            buffer.drainTo(pending);
+            ticket = queueSpill(pending);
+        }
+        awaitSpill(ticket);
+    }
+
+    /**
+     * Replays spilled messages, switching back to the in-memory buffer once the spill file
+     * is empty. Throws if the broker is still unavailable.
+     */
+    private void recover() throws Exception {
+        while (true) {
+            if (!Files.exists(replayFile)) {
+                synchronized (spillLock) {
+                    // Let queued groups reach the file before it is moved or found empty
+                    while (spillWriting || !spillQueue.isEmpty()) {
+                        spillLock.wait();
+                    }
+                    if (!Files.exists(spillFile) || Files.size(spillFile) == 0) {
+                        Files.deleteIfExists(spillFile);
+                        spilling = false;
+                        log.info("Spilled messages replayed, publishing from memory again");
+                        return;
+                    }
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            replay();
+        }
+    }
+
+    private void replay() throws Exception {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        long published = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                batch.add(new Pending(objectMapper.readValue(line, ImageProcessingMessage.class), System.nanoTime()));
+                if (batch.size() == batchSize) {
+                    publishAndConfirm(batch);
+                    published += batch.size();
+                    spilled.addAndGet(-batch.size());
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                publishAndConfirm(batch);
+                published += batch.size();
+                spilled.addAndGet(-batch.size());
+            }
+        } catch (Exception e) {
+            // The whole file is replayed again, including what was already confirmed
+            spilled.addAndGet(published);
+            throw e;
+        }
+        Files.delete(replayFile);
+    }
+
+    /**
+     * Queues messages for the spill file and returns the ticket to wait for, callers hold the
+     * spill lock
+     */
+    private long queueSpill(Collection<Pending> messages) {
+        spillQueue.addAll(messages);
+        spillQueued += messages.size();
+        return spillQueued;
+    }
+
+    /**
+     * Waits until the message with the given ticket is in the spill file. The first waiter
+     * finding no write in progress writes every queued message as one group; the others wait
+     * for it and return if their message was in that group. Callers must not hold the lock.
+     */
+    private void awaitSpill(long ticket) {
+        List<Pending> group;
+        long groupEnd;
+        boolean interrupted = false;
+        synchronized (spillLock) {
+            while (spillWritten < ticket && spillWriting) {
+                try {
+                    spillLock.wait();
+                } catch (InterruptedException e) {
+                    // The message must still be written, restore the interrupt afterwards
+                    interrupted = true;
+                }
+            }
+            if (spillWritten >= ticket) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            spillWriting = true;
+            group = spillQueue;
+            groupEnd = spillQueued;
+            spillQueue = new ArrayList<>();
+        }
+        // An interrupted thread cannot write to a file channel, as when stop() interrupts the
+        // dispatcher, so the interrupt is cleared for the write and restored afterwards
+        interrupted |= Thread.interrupted();
+        try {
+            spill(group);
+        } finally {
+            synchronized (spillLock) {
+                spillWritten = groupEnd;
+                spillWriting = false;
+                spillLock.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends messages to the spill file and syncs it, only called by the group writer
+     */
+    private void spill(Collection<Pending> messages) {
+        StringBuilder lines = new StringBuilder();
+        try {
+            for (Pending pending : messages) {
+                lines.append(objectMapper.writeValueAsString(pending.getMessage())).append('\n');
+            }
+            try (FileChannel channel = FileChannel.open(spillFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            }
+            spilled.addAndGet(messages.size());
+            spilledTotal.increment(messages.size());
+        } catch (IOException e) {
+            // Nowhere left to keep them, make the loss visible
+            log.error("Could not spill {} messages to {}, they are lost", messages.size(), spillFile, e);
+        }
+    }
+
+    private Duration backoff(int failures) {
+        long millis = initialBackoff.toMillis() << Math.min(failures - 1, 16);
+        return Duration.ofMillis(Math.min(maxBackoff.toMillis(), millis));
+    }
+
+    private boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long countLines(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> !line.isEmpty()).count();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Pending {
+        private final ImageProcessingMessage message;
+        private final long acceptedNanos;
+    }
+}
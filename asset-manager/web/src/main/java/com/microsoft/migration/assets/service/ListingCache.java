@@ -0,0 +1,109 @@
+package com.microsoft.migration.assets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of listing pages. Continuation tokens are the last key a page examined, so
+ * each page covers the key range after the token it was requested with, up to the token it
+ * returned, and a change to one object only drops the pages whose range contains that key.
+ * Entries expire after the staleness bound regardless, which covers changes made by other
+ * instances or events that never arrived.
+ */
+@Slf4j
+@Component
+public class ListingCache {
+
+    private final Cache<PageKey, CachedPage> pages;
+
+    /**
+     * Bumped by every invalidation, so a page loaded concurrently is not cached stale
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ListingCache(MeterRegistry meterRegistry,
+                        @Value("${storage.list.cache.max-pages:1000}") long maxPages,
+                        @Value("${storage.list.cache.max-staleness:30s}") Duration maxStaleness) {
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(maxPages)
+                .expireAfterWrite(maxStaleness)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "storage.listing");
+    }
+
+    public S3StoragePage getPage(String prefix, int pageSize, String continuationToken,
+                                 Supplier<S3StoragePage> loader) {
+        PageKey key = new PageKey(prefix == null ? "" : prefix, pageSize, continuationToken);
+        CachedPage cached = pages.getIfPresent(key);
+        if (cached != null) {
+            return cached.getPage();
+        }
+
+        long generation = invalidations.get();
+        S3StoragePage page = loader.get();
+        if (invalidations.get() == generation) {
+            pages.put(key, new CachedPage(page, continuationToken, page.getContinuationToken()));
+        }
+        return page;
+    }
+
+    /**
+     * Drops the pages whose key range contains the given object key
+     */
+    public void invalidate(String objectKey) {
+        invalidations.incrementAndGet();
+        pages.asMap().entrySet()
+                .removeIf(entry -> entry.getValue().covers(entry.getKey().getPrefix(), objectKey));
+        log.debug("Invalidated listing pages covering {}", objectKey);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        pages.invalidateAll();
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class PageKey {
+        private final String prefix;
+        private final int pageSize;
+        private final String continuationToken;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class CachedPage {
+        private final S3StoragePage page;
+        /**
+         * Null for the first page
+         */
+        private final String startAfter;
+        /**
+         * Null for the last page, which extends to the end of the key space
+         */
+        private final String lastKey;
+
+        boolean covers(String prefix, String objectKey) {
+            if (!objectKey.startsWith(prefix)) {
+                return false;
+            }
+            if (startAfter != null && objectKey.compareTo(startAfter) <= 0) {
+                return false;
+            }
+            return lastKey == null || objectKey.compareTo(lastKey) <= 0;
+        }
+    }
+}
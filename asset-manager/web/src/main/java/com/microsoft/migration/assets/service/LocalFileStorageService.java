@@ -1,25 +1,41 @@
 package com.microsoft.migration.assets.service;
 
+import com.microsoft.migration.assets.constants.StorageConstants;
 import com.microsoft.migration.assets.model.ImageProcessingMessage;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import com.microsoft.migration.assets.model.UploadIntent;
+import com.microsoft.migration.assets.model.UploadResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import static com.microsoft.migration.assets.config.RabbitConfig.IMAGE_PROCESSING_QUEUE;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Profile("dev") // Only active when dev profile is active
@@ -27,61 +43,95 @@ public class LocalFileStorageService implements StorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(LocalFileStorageService.class);
     
-    private final RabbitTemplate rabbitTemplate;
+    private final ImageProcessingPublisher imageProcessingPublisher;
+
+    private final ListingCache listingCache;
+
+    private final UploadTokens uploadTokens;
     
     @Value("${local.storage.directory:../storage}")
     private String storageDirectory;
+
+    @Value("${local.storage.upload.expiry:15m}")
+    private Duration uploadExpiry = Duration.ofMinutes(15);
+
     
+    /**
+     * How often the index re-lists the directory to catch changes the watcher missed
+     */
+    @Value("${local.storage.index.reconcile-interval:5m}")
+    private Duration reconcileInterval = Duration.ofMinutes(5);
+
     private Path rootLocation;
 
-    public LocalFileStorageService(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    private LocalStorageIndex index;
+
+    public LocalFileStorageService(ImageProcessingPublisher imageProcessingPublisher, ListingCache listingCache,
+                                   UploadTokens uploadTokens) {
+        this.imageProcessingPublisher = imageProcessingPublisher;
+        this.listingCache = listingCache;
+        this.uploadTokens = uploadTokens;
     }
     
     @PostConstruct
     public void init() throws IOException {
         rootLocation = Paths.get(storageDirectory).toAbsolutePath().normalize();
         logger.info("Local storage directory: {}", rootLocation);
+
         
         // Create directory if it doesn't exist
         if (!Files.exists(rootLocation)) {
             Files.createDirectories(rootLocation);
             logger.info("Created local storage directory");
         }
+
+        index = new LocalStorageIndex(rootLocation, this::generateUrl, reconcileInterval);
+        index.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (index != null) {
+            index.close();
+        }
     }
 
+    /**
+     * Served from the in-memory index in name order. The continuation token is the last
+     * name examined.
+     */
     @Override
-    public List<S3StorageItem> listObjects() {
-        try {
-            return Files.walk(rootLocation, 1)
-                .filter(path -> !path.equals(rootLocation))
-                .map(path -> {
-                    try {
-                        String filename = path.getFileName().toString();
-                        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-                        return new S3StorageItem(
-                            filename,
-                            filename,
-                            Files.size(path),
-                            attrs.lastModifiedTime().toInstant(),
-                            attrs.creationTime().toInstant(),
-                            generateUrl(filename)
-                        );
-                    } catch (IOException e) {
-                        logger.error("Failed to read file attributes", e);
-                        return null;
-                    }
-                })
-                .filter(s3StorageItem -> s3StorageItem != null)
-                .collect(Collectors.toList());
-        } catch (IOException e) {
-            logger.error("Failed to list files", e);
-            return new ArrayList<>();
+    public S3StoragePage listObjects(String prefix, int pageSize, String continuationToken) {
+        S3StoragePage page = index.list(prefix, Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)), continuationToken,
+            name -> !isThumbnailKey(name));
+        List<S3StorageItem> items = new ArrayList<>();
+        for (S3StorageItem indexed : page.getItems()) {
+            // Copy, the index entries are shared
+            S3StorageItem item = new S3StorageItem(indexed.getKey(), indexed.getName(), indexed.getSize(),
+                indexed.getLastModified(), indexed.getUploadedAt(), indexed.getUrl());
+            String thumbnailKey = getThumbnailKey(item.getKey());
+            if (index.contains(thumbnailKey)) {
+                item.setThumbnailUrl(generateUrl(thumbnailKey));
+            }
+            items.add(item);
         }
+        return new S3StoragePage(items, page.getContinuationToken());
+    }
+
+    @Override
+    public void objectsChanged(Collection<String> keys) {
+        keys.forEach(index::refresh);
     }
 
     @Override
     public void uploadObject(MultipartFile file) throws IOException {
+        String filename = storeObject(file).join();
+        objectsStored(Collections.singletonList(new UploadResult(
+                file.getOriginalFilename(), filename, file.getContentType(), file.getSize(), null)));
+    }
+
+    @Override
+    public CompletableFuture<String> storeObject(MultipartFile file) throws IOException {
         if (file.isEmpty()) {
             throw new IOException("Failed to store empty file");
         }
@@ -94,15 +144,142 @@ public class LocalFileStorageService implements StorageService {
         Path targetLocation = rootLocation.resolve(filename);
         Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
         logger.info("Stored file: {}", targetLocation);
+        index.refresh(filename);
+        return CompletableFuture.completedFuture(filename);
+    }
 
-        // Send message to queue for thumbnail generation
-        ImageProcessingMessage message = new ImageProcessingMessage(
-            filename,
-            file.getContentType(),
-            getStorageType(),
-            file.getSize()
-        );
-        rabbitTemplate.convertAndSend(IMAGE_PROCESSING_QUEUE, message);
+    @Override
+    public void objectsStored(List<UploadResult> stored) {
+        for (UploadResult object : stored) {
+            listingCache.invalidate(object.getKey());
+
+            // Send message to queue for thumbnail generation
+            ImageProcessingMessage message = new ImageProcessingMessage(
+                object.getKey(),
+                object.getContentType(),
+                getStorageType(),
+                object.getSize()
+            );
+            imageProcessingPublisher.publish(message);
+        }
+    }
+
+    /**
+     * Signs a token for one upload to the direct upload endpoint. The token names the file,
+     * its content type and size and when it expires.
+     */
+    @Override
+    public UploadIntent createUploadIntent(String filename, String contentType, long size) {
+        String key = StringUtils.cleanPath(StringUtils.getFilename(filename));
+        if (key.contains("..")) {
+            throw new IllegalArgumentException("Cannot store file with relative path outside current directory");
+        }
+        Instant expiresAt = Instant.now().plus(uploadExpiry);
+        String token = uploadTokens.issue(key, contentType, size, expiresAt);
+        return new UploadIntent(key, "/" + StorageConstants.STORAGE_PATH + "/direct/" + token, "PUT",
+                Collections.singletonMap(HttpHeaders.CONTENT_TYPE, contentType), expiresAt, token);
+    }
+
+    /**
+     * Writes the body of a direct upload, after checking its token. The file appears under
+     * its key only once all declared bytes arrived, and is announced by completeUpload.
+     */
+    public String storeDirectUpload(String token, String contentType, InputStream body) throws IOException {
+        UploadTokens.SignedUpload upload = uploadTokens.verify(token);
+        String key = upload.getKey();
+        long size = upload.getSize();
+        if (!upload.getContentType().equals(contentType)) {
+            throw new IllegalArgumentException("Content type " + contentType + " does not match the upload intent");
+        }
+
+        Path part = newPartFile();
+        try {
+            long written;
+            try (OutputStream out = Files.newOutputStream(part)) {
+                written = StreamUtils.copyRange(body, out, 0, size - 1);
+            }
+            if (written != size || body.read() != -1) {
+                throw new IllegalArgumentException("Upload does not match the declared size of " + size + " bytes");
+            }
+            moveIntoPlace(part, key);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        logger.info("Stored direct upload: {}", key);
+        return key;
+    }
+
+    /**
+     * Writes the stream through a file channel as it is read. The file appears under its key
+     * only once the stream ended, so a broken-off upload leaves nothing behind.
+     */
+    @Override
+    public UploadResult storeStream(String filename, String contentType, InputStream in) throws IOException {
+        String key = StringUtils.cleanPath(filename);
+        if (key.contains("..")) {
+            throw new IOException("Cannot store file with relative path outside current directory");
+        }
+
+        ChecksumInputStream source = new ChecksumInputStream(in);
+        Path part = newPartFile();
+        try {
+            try (ReadableByteChannel from = Channels.newChannel(source);
+                 FileChannel to = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                while (from.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        to.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            if (source.getSize() == 0) {
+                throw new IOException("Failed to store empty file");
+            }
+            moveIntoPlace(part, key);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        logger.info("Stored streamed file: {}", key);
+        return new UploadResult(filename, key, contentType, source.getSize(), null, source.getChecksum());
+    }
+
+    /**
+     * Temporary file for an upload in progress, kept out of the index in a subdirectory
+     */
+    private Path newPartFile() throws IOException {
+        Path incoming = rootLocation.resolve(".uploads");
+        Files.createDirectories(incoming);
+        return Files.createTempFile(incoming, "upload-", ".part");
+    }
+
+    private void moveIntoPlace(Path part, String key) throws IOException {
+        Files.move(part, rootLocation.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        index.refresh(key);
+    }
+
+    /**
+     * Announces a direct upload once per token, after checking the file is the image it was
+     * issued for
+     */
+    @Override
+    public UploadResult completeUpload(String token) throws IOException {
+        UploadTokens.SignedUpload upload = uploadTokens.verifyCompletion(token);
+        S3StorageItem object = getObjectInfo(upload.getKey());
+        if (!upload.matches(object)) {
+            throw new IllegalArgumentException("Stored file does not match the upload intent");
+        }
+        UploadResult result = new UploadResult(upload.getKey(), upload.getKey(), object.getContentType(), object.getSize(), null);
+        if (uploadTokens.claim(token)) {
+            try {
+                objectsStored(Collections.singletonList(result));
+            } catch (RuntimeException e) {
+                uploadTokens.release(token);
+                throw e;
+            }
+        }
+        return result;
     }
 
     @Override
@@ -114,6 +291,69 @@ public class LocalFileStorageService implements StorageService {
         return new BufferedInputStream(Files.newInputStream(file));
     }
 
+    @Override
+    public S3StorageItem getObjectInfo(String key) throws IOException {
+        Path file = rootLocation.resolve(key);
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        // Size and modification time change whenever the file is replaced
+        String eTag = "\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis()) + "\"";
+        return new S3StorageItem(
+            key,
+            file.getFileName().toString(),
+            attrs.size(),
+            attrs.lastModifiedTime().toInstant(),
+            attrs.creationTime().toInstant(),
+            generateUrl(key),
+            MediaTypeFactory.getMediaType(key).map(MediaType::toString).orElse(null),
+            eTag
+        );
+    }
+
+    @Override
+    public InputStream getObject(String key, long offset, long length) throws IOException {
+        Path file = rootLocation.resolve(key);
+        if (!Files.exists(file)) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+        SeekableByteChannel channel = Files.newByteChannel(file).position(offset);
+        return new BufferedInputStream(new FilterInputStream(Channels.newInputStream(channel)) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(buffer, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+        });
+    }
+
+    @Override
+    public Optional<Path> getLocalFile(String key) {
+        Path file = rootLocation.resolve(key).normalize();
+        return file.startsWith(rootLocation) && Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+    }
+
     @Override
     public void deleteObject(String key) throws IOException {
         // Delete both original and thumbnail if it exists
@@ -123,6 +363,8 @@ public class LocalFileStorageService implements StorageService {
         }
         Files.delete(file);
         logger.info("Deleted file: {}", file);
+        index.remove(key);
+        listingCache.invalidate(key);
 
         // Try to delete thumbnail if it exists
         try {
@@ -130,11 +372,32 @@ public class LocalFileStorageService implements StorageService {
             if (Files.exists(thumbnailFile)) {
                 Files.delete(thumbnailFile);
                 logger.info("Deleted thumbnail file: {}", thumbnailFile);
+                index.remove(getThumbnailKey(key));
+                listingCache.invalidate(getThumbnailKey(key));
             }
         } catch (Exception e) {
             // Ignore if thumbnail doesn't exist or can't be deleted
             logger.warn("Could not delete thumbnail for {}: {}", key, e.getMessage());
         }
+
+        // Other sizes follow the <name>_thumbnail_<size><ext> convention
+        String thumbnailKey = getThumbnailKey(key);
+        String extension = thumbnailKey.substring(thumbnailKey.lastIndexOf("_thumbnail") + "_thumbnail".length());
+        String renditionPrefix = thumbnailKey.substring(0, thumbnailKey.length() - extension.length()) + "_";
+        try (DirectoryStream<Path> renditions = Files.newDirectoryStream(rootLocation,
+                path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(renditionPrefix) && name.endsWith(extension);
+                })) {
+            for (Path rendition : renditions) {
+                Files.deleteIfExists(rendition);
+                logger.info("Deleted rendition file: {}", rendition);
+                index.remove(rendition.getFileName().toString());
+                listingCache.invalidate(rendition.getFileName().toString());
+            }
+        } catch (Exception e) {
+            logger.warn("Could not delete renditions for {}: {}", key, e.getMessage());
+        }
     }
 
     @Override
@@ -0,0 +1,216 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * In-memory index of the files in the local storage directory, sorted by name.
+ * It is built with one scan at startup and then kept current in four ways: the storage
+ * service refreshes entries it writes or deletes, storage events from the worker refresh the
+ * thumbnails it writes, a WatchService reports changes made by other processes on this host,
+ * and a periodic reconcile re-reads the directory to pick up what the watcher cannot see,
+ * such as writes from other NFS clients or overflowed events.
+ * Reconcile stats every file in the background and replaces entries whose size or
+ * modification time changed, so listings never touch the file system.
+ */
+class LocalStorageIndex implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalStorageIndex.class);
+
+    private final Path root;
+    private final Function<String, String> urlGenerator;
+    private final long reconcileIntervalMillis;
+    private final ConcurrentSkipListMap<String, S3StorageItem> entries = new ConcurrentSkipListMap<>();
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    LocalStorageIndex(Path root, Function<String, String> urlGenerator, Duration reconcileInterval) {
+        this.root = root;
+        this.urlGenerator = urlGenerator;
+        this.reconcileIntervalMillis = Math.max(1000, reconcileInterval.toMillis());
+    }
+
+    void start() throws IOException {
+        // Register before the scan, so nothing changed in between goes unnoticed
+        watchService = root.getFileSystem().newWatchService();
+        root.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        reconcile();
+        logger.info("Indexed {} files in {}", entries.size(), root);
+
+        watcher = new Thread(this::watch, "local-storage-index");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * One page of the files accepted by the filter whose names start with prefix, after the
+     * given name. The continuation token is the last name examined.
+     */
+    S3StoragePage list(String prefix, int limit, String startAfter, Predicate<String> filter) {
+        String from = startAfter;
+        if (prefix != null && !prefix.isEmpty() && (from == null || from.compareTo(prefix) < 0)) {
+            from = prefix;
+        }
+        NavigableMap<String, S3StorageItem> tail = from == null
+                ? entries
+                : entries.tailMap(from, !from.equals(startAfter));
+
+        List<S3StorageItem> items = new ArrayList<>();
+        String lastName = null;
+        boolean truncated = false;
+        for (Map.Entry<String, S3StorageItem> entry : tail.entrySet()) {
+            if (prefix != null && !entry.getKey().startsWith(prefix)) {
+                // Names sharing the prefix are contiguous in sort order
+                break;
+            }
+            if (items.size() == limit) {
+                truncated = true;
+                break;
+            }
+            lastName = entry.getKey();
+            if (filter.test(lastName)) {
+                items.add(entry.getValue());
+            }
+        }
+        return new S3StoragePage(items, truncated ? lastName : null);
+    }
+
+    /**
+     * Re-reads the attributes of one file, dropping it from the index if it is gone
+     */
+    void refresh(String name) {
+        Path file = root.resolve(name);
+        try {
+            update(name, Files.readAttributes(file, BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            entries.remove(name);
+        } catch (IOException e) {
+            logger.warn("Could not read attributes of {}: {}", file, e.getMessage());
+        }
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Re-reads the directory, indexing new files, replacing entries of files whose size or
+     * modification time changed, such as files replaced in place by another NFS client, and
+     * dropping names that disappeared
+     */
+    void reconcile() {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(root)) {
+            for (Path path : directory) {
+                String name = path.getFileName().toString();
+                names.add(name);
+                try {
+                    update(name, Files.readAttributes(path, BasicFileAttributes.class));
+                } catch (NoSuchFileException e) {
+                    names.remove(name);
+                } catch (IOException e) {
+                    logger.warn("Could not read attributes of {}: {}", path, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to reconcile index of {}", root, e);
+            return;
+        }
+        entries.keySet().removeIf(name -> !names.contains(name));
+    }
+
+    private void update(String name, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile()) {
+            entries.remove(name);
+            return;
+        }
+        S3StorageItem current = entries.get(name);
+        if (current != null && current.getSize() == attrs.size()
+                && current.getLastModified().equals(attrs.lastModifiedTime().toInstant())) {
+            return;
+        }
+        entries.put(name, new S3StorageItem(
+                name,
+                name,
+                attrs.size(),
+                attrs.lastModifiedTime().toInstant(),
+                attrs.creationTime().toInstant(),
+                urlGenerator.apply(name)
+        ));
+    }
+
+    private void watch() {
+        long nextReconcile = System.currentTimeMillis() + reconcileIntervalMillis;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long wait = Math.max(0, nextReconcile - System.currentTimeMillis());
+                WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            reconcile();
+                        } else if (event.kind() == ENTRY_DELETE) {
+                            remove(event.context().toString());
+                        } else {
+                            refresh(event.context().toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.warn("Storage directory {} is no longer watched, relying on reconcile", root);
+                    }
+                }
+                if (System.currentTimeMillis() >= nextReconcile) {
+                    reconcile();
+                    nextReconcile = System.currentTimeMillis() + reconcileIntervalMillis;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.microsoft.migration.assets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.microsoft.migration.assets.model.Rendition;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier cache of rendered renditions. A small heap tier holds the hottest renditions, and a
+ * bounded directory on local disk holds the rest, evicting the least recently used files once
+ * it grows past its size. Cache keys include the source ETag, so a replaced original is never
+ * served stale renditions; theirs simply age out.
+ */
+@Slf4j
+@Component
+public class RenditionCache {
+
+    private final Cache<String, Rendition> memory;
+
+    /**
+     * Disk files by name in access order, with their sizes, guarded by this
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long diskBytes;
+
+    @Value("${storage.renditions.cache.directory:rendition-cache}")
+    private String directoryName;
+
+    @Value("${storage.renditions.cache.disk-size:1GB}")
+    private DataSize maxDiskSize = DataSize.ofGigabytes(1);
+
+    private Path directory;
+
+    public RenditionCache(MeterRegistry meterRegistry,
+                          @Value("${storage.renditions.cache.memory-size:32MB}") DataSize maxMemorySize) {
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(maxMemorySize.toBytes())
+                .<String, Rendition>weigher((key, rendition) -> rendition.getContent().length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "storage.renditions");
+        Gauge.builder("storage.renditions.disk.size", this, cache -> cache.diskBytes())
+                .description("Bytes of renditions cached on local disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Picks up the files cached by the previous run, oldest first so they are evicted first
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Paths.get(directoryName).toAbsolutePath().normalize();
+        Files.createDirectories(directory);
+        List<Path> existing;
+        try (Stream<Path> listing = Files.list(directory)) {
+            existing = listing.collect(Collectors.toList());
+        }
+        existing.sort(Comparator.comparingLong(this::lastModified));
+        for (Path file : existing) {
+            if (file.getFileName().toString().endsWith(".tmp")) {
+                Files.deleteIfExists(file);
+            } else {
+                added(file.getFileName().toString(), Files.size(file));
+            }
+        }
+        log.info("Rendition cache in {} holds {} bytes", directory, diskBytes());
+    }
+
+    /**
+     * The cached rendition, encoded in the format of the given file extension, or null
+     */
+    public Rendition get(String cacheKey, String extension) {
+        Rendition rendition = memory.getIfPresent(cacheKey);
+        if (rendition != null) {
+            return rendition;
+        }
+
+        String name = fileName(cacheKey, extension);
+        synchronized (this) {
+            if (files.get(name) == null) {
+                return null;
+            }
+        }
+        try {
+            rendition = new Rendition(Files.readAllBytes(directory.resolve(name)), contentType(extension));
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the read
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not read cached rendition {}: {}", name, e.getMessage());
+            return null;
+        }
+        memory.put(cacheKey, rendition);
+        return rendition;
+    }
+
+    /**
+     * Caches a rendition encoded in the format of the given file extension
+     */
+    public void put(String cacheKey, String extension, Rendition rendition) {
+        memory.put(cacheKey, rendition);
+        String name = fileName(cacheKey, extension);
+        try {
+            Path temp = Files.createTempFile(directory, "rendition-", ".tmp");
+            Files.write(temp, rendition.getContent());
+            Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            added(name, rendition.getContent().length);
+        } catch (IOException e) {
+            // Still served from memory, and rendered again once evicted from there
+            log.warn("Could not write rendition {} to the disk cache: {}", name, e.getMessage());
+        }
+    }
+
+    private void added(String name, long size) {
+        synchronized (this) {
+            Long previous = files.put(name, size);
+            diskBytes += size - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+            while (diskBytes > maxDiskSize.toBytes() && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(name)) {
+                    continue;
+                }
+                eldest.remove();
+                diskBytes -= entry.getValue();
+                try {
+                    Files.deleteIfExists(directory.resolve(entry.getKey()));
+                } catch (IOException e) {
+                    log.warn("Could not evict cached rendition {}: {}", entry.getKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized long diskBytes() {
+        return diskBytes;
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static String contentType(String extension) {
+        return MediaTypeFactory.getMediaType("rendition." + extension)
+                .map(MediaType::toString)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    }
+
+    /**
+     * Hashed file name, so any key maps to a safe name of fixed length
+     */
+    private static String fileName(String cacheKey, String extension) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(cacheKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append('.').append(extension).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
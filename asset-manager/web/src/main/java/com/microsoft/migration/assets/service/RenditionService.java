@@ -0,0 +1,205 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.imaging.Fit;
+import com.microsoft.migration.assets.imaging.ImageDecoder;
+import com.microsoft.migration.assets.imaging.ImageEncoder;
+import com.microsoft.migration.assets.imaging.Java2dResamplingEngine;
+import com.microsoft.migration.assets.imaging.ResamplingEngine;
+import com.microsoft.migration.assets.model.Rendition;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resized renditions of stored images, rendered on first request and cached after that.
+ * Concurrent requests for the same rendition wait for a single render instead of each
+ * decoding the original.
+ */
+@Slf4j
+@Service
+public class RenditionService {
+
+    private static final List<String> FORMATS = Arrays.asList("jpg", "jpeg", "png", "gif", "bmp");
+
+    private final StorageService storageService;
+    private final RenditionCache cache;
+    private final ResamplingEngine resamplingEngine = new Java2dResamplingEngine();
+    private final ImageDecoder decoder = new ImageDecoder(0);
+    private final ConcurrentMap<String, CompletableFuture<Rendition>> rendering = new ConcurrentHashMap<>();
+    private final Semaphore renders;
+
+    @Value("${storage.renditions.max-dimension:4000}")
+    private int maxDimension = 4000;
+
+    public RenditionService(StorageService storageService, RenditionCache cache,
+                            @Value("${storage.renditions.max-concurrent-renders:4}") int maxConcurrentRenders) {
+        this.storageService = storageService;
+        this.cache = cache;
+        this.renders = new Semaphore(maxConcurrentRenders);
+        // Renditions are decoded and encoded in memory, keep ImageIO off the temp directory
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Parses the fit mode, defaulting to contain, or throws IllegalArgumentException
+     */
+    public Fit fit(String fit) {
+        if (!StringUtils.hasText(fit)) {
+            return Fit.CONTAIN;
+        }
+        try {
+            return Fit.valueOf(fit.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown fit " + fit + ", expected contain, cover or fill");
+        }
+    }
+
+    /**
+     * Rendition of the object fitted into width x height. A missing side leaves that side
+     * unbounded, which only makes sense to contain. The source ETag identifies the version
+     * of the object, so renditions of a replaced object are never served.
+     *
+     * @throws IllegalArgumentException when the size is out of range or the object is not a decodable image
+     */
+    public Rendition getRendition(String key, String sourceETag, Integer width, Integer height, Fit fit)
+            throws IOException {
+        if (width == null && height == null) {
+            throw new IllegalArgumentException("Width or height is required");
+        }
+        if ((width == null || height == null) && fit != Fit.CONTAIN) {
+            throw new IllegalArgumentException("Both width and height are required to " + fit.name().toLowerCase(Locale.ROOT));
+        }
+        checkDimension(width);
+        checkDimension(height);
+        int targetWidth = width != null ? width : Integer.MAX_VALUE;
+        int targetHeight = height != null ? height : Integer.MAX_VALUE;
+
+        String extension = format(key);
+        String cacheKey = key + "|" + sourceETag + "|" + width + "x" + height + "|" + fit;
+        Rendition rendition = cache.get(cacheKey, extension);
+        if (rendition != null) {
+            return rendition;
+        }
+
+        CompletableFuture<Rendition> render = new CompletableFuture<>();
+        CompletableFuture<Rendition> inProgress = rendering.putIfAbsent(cacheKey, render);
+        if (inProgress != null) {
+            return join(inProgress);
+        }
+        try {
+            // Another render may have finished between the cache miss and claiming this one
+            rendition = cache.get(cacheKey, extension);
+            if (rendition == null) {
+                rendition = render(key, targetWidth, targetHeight, fit, extension);
+                cache.put(cacheKey, extension, rendition);
+            }
+            render.complete(rendition);
+            return rendition;
+        } catch (IOException | RuntimeException e) {
+            render.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(cacheKey, render);
+        }
+    }
+
+    private Rendition render(String key, int width, int height, Fit fit, String extension) throws IOException {
+        renders.acquireUninterruptibly();
+        try {
+            long start = System.currentTimeMillis();
+            BufferedImage source = decode(key, width, height, fit);
+            if (source == null) {
+                throw new IllegalArgumentException(key + " is not a decodable image");
+            }
+
+            Dimension scaled = fit.scaledSize(source.getWidth(), source.getHeight(), width, height);
+            BufferedImage image = resamplingEngine.scale(source, scaled.width, scaled.height);
+            if (image != source) {
+                image = resamplingEngine.sharpen(image);
+            }
+            if (fit == Fit.COVER) {
+                image = crop(image, Math.min(width, image.getWidth()), Math.min(height, image.getHeight()));
+            }
+
+            byte[] content = ImageEncoder.encode(image, extension);
+            log.debug("Rendered {} at {}x{} ({}) in {}ms", key, image.getWidth(), image.getHeight(),
+                    fit, System.currentTimeMillis() - start);
+            return new Rendition(content, RenditionCache.contentType(extension));
+        } finally {
+            renders.release();
+        }
+    }
+
+    private BufferedImage decode(String key, int width, int height, Fit fit) throws IOException {
+        Optional<Path> localFile = storageService.getLocalFile(key);
+        if (localFile.isPresent()) {
+            try (ImageInputStream input = ImageIO.createImageInputStream(localFile.get().toFile())) {
+                return decoder.read(input, width, height, fit);
+            }
+        }
+        try (InputStream in = storageService.getObject(key);
+             ImageInputStream input = ImageIO.createImageInputStream(in)) {
+            return decoder.read(input, width, height, fit);
+        }
+    }
+
+    /**
+     * Crops the centre of the image to width x height
+     */
+    private static BufferedImage crop(BufferedImage image, int width, int height) {
+        if (width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+        return image.getSubimage((image.getWidth() - width) / 2, (image.getHeight() - height) / 2, width, height);
+    }
+
+    private void checkDimension(Integer dimension) {
+        if (dimension != null && (dimension < 1 || dimension > maxDimension)) {
+            throw new IllegalArgumentException("Width and height must be between 1 and " + maxDimension);
+        }
+    }
+
+    /**
+     * Renditions keep the format of the original where it can be written, PNG otherwise
+     */
+    private static String format(String key) {
+        String extension = StringUtils.getFilenameExtension(key);
+        if (extension != null && FORMATS.contains(extension.toLowerCase(Locale.ROOT))) {
+            return "jpeg".equalsIgnoreCase(extension) ? "jpg" : extension.toLowerCase(Locale.ROOT);
+        }
+        return "png";
+    }
+
+    private static Rendition join(CompletableFuture<Rendition> render) throws IOException {
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.microsoft.migration.assets.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A file read from a stream, such as an archive entry, and kept in a temporary file so it can
+ * be stored like an uploaded part. Delete it once it has been stored.
+ */
+class SpooledFile implements MultipartFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpooledFile.class);
+
+    private final Path path;
+    private final String filename;
+    private final String contentType;
+    private final long size;
+
+    private SpooledFile(Path path, String filename, String contentType, long size) {
+        this.path = path;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    /**
+     * Copies the stream to a temporary file, failing once it grows beyond maxSize bytes.
+     * The stream is not closed.
+     */
+    static SpooledFile spool(InputStream in, String filename, String contentType, long maxSize) throws IOException {
+        Path path = Files.createTempFile("bulk-upload-", ".tmp");
+        try (OutputStream out = Files.newOutputStream(path)) {
+            byte[] buffer = new byte[8192];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+                if (size > maxSize) {
+                    throw new IOException(filename + " exceeds the maximum size of " + maxSize + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+            return new SpooledFile(path, filename, contentType, size);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(path);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(path, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete spooled file {}: {}", path, e.getMessage());
+        }
+    }
+}
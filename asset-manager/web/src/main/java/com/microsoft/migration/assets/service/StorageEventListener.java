@@ -0,0 +1,32 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.StorageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Refreshes storage state and cached listing pages when the worker stores thumbnails
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StorageEventListener {
+
+    private final ListingCache listingCache;
+    private final StorageService storageService;
+
+    @RabbitListener(queues = "#{storageEventsQueue.name}", ackMode = "AUTO")
+    public void onStorageEvent(StorageEvent event) {
+        log.debug("Thumbnails stored for {}: {}", event.getOriginalKey(), event.getKeys());
+        if (event.getKeys() != null) {
+            storageService.objectsChanged(event.getKeys());
+            event.getKeys().forEach(listingCache::invalidate);
+        }
+        // The original's listing entry now carries a thumbnail
+        if (event.getOriginalKey() != null) {
+            listingCache.invalidate(event.getOriginalKey());
+        }
+    }
+}
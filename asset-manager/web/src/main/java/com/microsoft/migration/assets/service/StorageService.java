@@ -3,11 +3,20 @@ package com.microsoft.migration.assets.service;
 import com.microsoft.migration.assets.constants.StorageConstants;
 import com.microsoft.migration.assets.model.ImageProcessingMessage;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import com.microsoft.migration.assets.model.UploadIntent;
+import com.microsoft.migration.assets.model.UploadResult;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for storage operations that can be implemented by different storage providers
@@ -16,25 +25,120 @@ import java.util.List;
 public interface StorageService {
     
     /**
-     * List all objects in storage
+     * Largest page a single listing call returns
      */
-    List<S3StorageItem> listObjects();
+    int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * List one page of originals whose keys start with prefix, in key order, each paired with
+     * its thumbnail URL when one exists. Thumbnails and renditions are not listed themselves.
+     * Pass the continuation token of the previous page, or null for the first page. The token
+     * is the last key the previous page examined, the next page starts after it.
+     */
+    S3StoragePage listObjects(String prefix, int pageSize, String continuationToken);
+
+    /**
+     * List all objects in storage, page by page
+     */
+    default List<S3StorageItem> listObjects() {
+        List<S3StorageItem> objects = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            S3StoragePage page = listObjects(null, MAX_PAGE_SIZE, continuationToken);
+            objects.addAll(page.getItems());
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+        return objects;
+    }
     
     /**
      * Upload file to storage
      */
     void uploadObject(MultipartFile file) throws IOException;
+
+    /**
+     * Upload file to storage, completing once the object is stored and announced.
+     * Announcing blocks on the database and broker, so implementations whose transfers
+     * complete on I/O threads override this to announce on an executor of their own.
+     */
+    default CompletableFuture<Void> uploadObjectAsync(MultipartFile file) throws IOException {
+        return storeObject(file).thenAccept(key -> objectsStored(Collections.singletonList(new UploadResult(
+                file.getOriginalFilename(), key, file.getContentType(), file.getSize(), null))));
+    }
+
+    /**
+     * Write the file's bytes without announcing the object, completing with its key.
+     * Implementations that cannot transfer asynchronously store on the calling thread.
+     */
+    CompletableFuture<String> storeObject(MultipartFile file) throws IOException;
+
+    /**
+     * Store a file of unknown length as it is read, without buffering it first or announcing
+     * it. The result carries the size and SHA-256 checksum computed along the way.
+     */
+    UploadResult storeStream(String filename, String contentType, InputStream in) throws IOException;
+
+    /**
+     * Announce objects written by storeObject or storeStream: queue thumbnail generation, record their
+     * metadata and invalidate listings, once for the whole batch
+     */
+    void objectsStored(List<UploadResult> stored);
+    
+    /**
+     * Issue a signed URL the client uploads a file's bytes to directly, valid for one object
+     * of the given content type and size
+     */
+    UploadIntent createUploadIntent(String filename, String contentType, long size);
+
+    /**
+     * Announce an object uploaded through an upload intent, once per intent token. Throws
+     * SecurityException for a token this server did not issue or that expired,
+     * FileNotFoundException while the bytes are not in storage yet and
+     * IllegalArgumentException when the stored object is not the image the intent was for.
+     */
+    UploadResult completeUpload(String token) throws IOException;
     
     /**
      * Get object from storage by key
      */
     InputStream getObject(String key) throws IOException;
 
+    /**
+     * Look up a single object, including its upload metadata, without listing storage
+     */
+    S3StorageItem getObjectInfo(String key) throws IOException;
+
+    /**
+     * Get size, content type and validators of an object for serving its content. Implementations
+     * may skip the metadata lookup, so uploadedAt can fall back to the modification time.
+     */
+    default S3StorageItem headObject(String key) throws IOException {
+        return getObjectInfo(key);
+    }
+
+    /**
+     * Get a byte range of an object, starting at offset and spanning length bytes
+     */
+    InputStream getObject(String key, long offset, long length) throws IOException;
+
+    /**
+     * Get the file backing an object, when its bytes can be served straight from disk
+     */
+    default Optional<Path> getLocalFile(String key) {
+        return Optional.empty();
+    }
+
     /**
      * Delete object from storage by key
      */
     void deleteObject(String key) throws IOException;
 
+    /**
+     * Notifies the storage that another process wrote or replaced the given objects
+     */
+    default void objectsChanged(Collection<String> keys) {
+    }
+
     /**
      * Get the storage type (s3 or local)
      */
@@ -51,6 +155,15 @@ public interface StorageService {
         return key + "_thumbnail";
     }
 
+    /**
+     * Whether a key names a thumbnail or rendition rather than an original
+     */
+    default boolean isThumbnailKey(String key) {
+        int dotIndex = key.lastIndexOf('.');
+        String baseName = dotIndex > 0 ? key.substring(0, dotIndex) : key;
+        return StorageConstants.THUMBNAIL_BASE_NAME.matcher(baseName).matches();
+    }
+
     /**
      * Generate a URL for viewing the object
      */
@@ -0,0 +1,77 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.UploadResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+/**
+ * Uploads the file part of a multipart request while the request is being read. The part is
+ * piped into storage as it arrives, so it is neither buffered in memory nor written to a
+ * temporary file first. Requires lazy multipart resolution, so nothing parses the request
+ * before this does.
+ */
+@Slf4j
+@Service
+public class StreamingUploadService {
+
+    private final StorageService storageService;
+
+    @Value("${storage.upload.stream.max-size:5GB}")
+    private DataSize maxFileSize = DataSize.ofGigabytes(5);
+
+    public StreamingUploadService(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * Stores and announces the first file part named fieldName, failing when there is none
+     */
+    public UploadResult upload(HttpServletRequest request, String fieldName) throws IOException {
+        ServletFileUpload upload = new ServletFileUpload();
+        upload.setFileSizeMax(maxFileSize.toBytes());
+        try {
+            FileItemIterator parts = upload.getItemIterator(request);
+            while (parts.hasNext()) {
+                FileItemStream part = parts.next();
+                if (part.isFormField() || !fieldName.equals(part.getFieldName())
+                        || !StringUtils.hasText(part.getName())) {
+                    continue;
+                }
+
+                UploadResult result;
+                try (InputStream in = part.openStream()) {
+                    result = storageService.storeStream(filename(part.getName()), part.getContentType(), in);
+                }
+                storageService.objectsStored(Collections.singletonList(result));
+                log.info("Streamed {} ({} bytes, sha256 {})", result.getKey(), result.getSize(), result.getChecksum());
+                return result;
+            }
+        } catch (FileUploadBase.FileUploadIOException e) {
+            // A limit was exceeded while the part was being read
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (FileUploadException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        throw new IOException("Please select a file to upload");
+    }
+
+    /**
+     * Some browsers send the full client path, on Windows with backslashes
+     */
+    private String filename(String path) {
+        return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+    }
+}
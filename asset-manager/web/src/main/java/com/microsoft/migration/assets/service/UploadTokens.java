@@ -0,0 +1,158 @@
+package com.microsoft.migration.assets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.microsoft.migration.assets.model.S3StorageItem;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signs the key, content type, size and expiry of an upload intent into a token, so only
+ * uploads the server issued can be sent and completed. Completion is accepted for a grace
+ * period after the intent expires, for transfers that started just before, and announces
+ * each token once.
+ */
+@Slf4j
+@Component
+public class UploadTokens {
+
+    private final byte[] secret;
+
+    private final Duration completeGrace;
+
+    /**
+     * Completed tokens, kept until they could no longer be verified
+     */
+    private final Cache<String, Instant> completed;
+
+    public UploadTokens(@Value("${storage.upload.secret:}") String secret,
+                        @Value("${storage.upload.complete-grace:15m}") Duration completeGrace) {
+        if (StringUtils.hasText(secret)) {
+            this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        } else {
+            log.warn("storage.upload.secret is not set, signing upload tokens with a random key. "
+                    + "Uploads cannot be completed after a restart or on another instance.");
+            this.secret = new byte[32];
+            new SecureRandom().nextBytes(this.secret);
+        }
+        this.completeGrace = completeGrace;
+        this.completed = Caffeine.newBuilder()
+                .expireAfter(new Expiry<String, Instant>() {
+                    @Override
+                    public long expireAfterCreate(String token, Instant until, long currentTime) {
+                        long remaining = until.toEpochMilli() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remaining));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Instant until, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Instant until, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    public String issue(String key, String contentType, long size, Instant expiresAt) {
+        String payload = key + "\n" + contentType + "\n" + size + "\n" + expiresAt.getEpochSecond();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Returns the upload signed into a token that has not expired
+     */
+    public SignedUpload verify(String token) {
+        return verify(token, Duration.ZERO);
+    }
+
+    /**
+     * Returns the upload signed into a token that may still be completed
+     */
+    public SignedUpload verifyCompletion(String token) {
+        return verify(token, completeGrace);
+    }
+
+    /**
+     * True for the first completion of a token, false when it was completed already
+     */
+    public boolean claim(String token) {
+        SignedUpload upload = verifyCompletion(token);
+        return completed.asMap().putIfAbsent(token, upload.getExpiresAt().plus(completeGrace)) == null;
+    }
+
+    /**
+     * Allows a token to be completed again after announcing it failed
+     */
+    public void release(String token) {
+        completed.invalidate(token);
+    }
+
+    private SignedUpload verify(String token, Duration grace) {
+        int dot = token.indexOf('.');
+        if (dot > 0) {
+            try {
+                Base64.Decoder decoder = Base64.getUrlDecoder();
+                String payload = new String(decoder.decode(token.substring(0, dot)), StandardCharsets.UTF_8);
+                byte[] signature = decoder.decode(token.substring(dot + 1));
+                String[] fields = payload.split("\n", -1);
+                if (MessageDigest.isEqual(sign(payload), signature) && fields.length == 4) {
+                    Instant expiresAt = Instant.ofEpochSecond(Long.parseLong(fields[3]));
+                    if (Instant.now().isBefore(expiresAt.plus(grace))) {
+                        return new SignedUpload(fields[0], fields[1], Long.parseLong(fields[2]), expiresAt);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // Malformed token, rejected below
+            }
+        }
+        throw new SecurityException("Invalid or expired upload token");
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class SignedUpload {
+        private String key;
+        private String contentType;
+        private long size;
+        private Instant expiresAt;
+
+        /**
+         * Whether the stored object is the image this upload was issued for
+         */
+        public boolean matches(S3StorageItem object) {
+            return object.getContentType() != null && object.getContentType().startsWith("image/")
+                    && object.getSize() == size;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.microsoft.migration.assets.controller;
+
+import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.service.BulkUploadService;
+import com.microsoft.migration.assets.service.ListingCache;
+import com.microsoft.migration.assets.service.RenditionService;
+import com.microsoft.migration.assets.service.StorageService;
+import com.microsoft.migration.assets.service.StreamingUploadService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+
+public class S3ControllerTest {
+
+    private static final String KEY = "photo.jpg";
+    private static final String CONTENT = "0123456789";
+    private static final String ETAG = "\"v2\"";
+    // Sub-second part is dropped by HTTP dates
+    private static final Instant LAST_MODIFIED = Instant.ofEpochMilli(1700000000123L);
+    private static final String LAST_MODIFIED_DATE = "Tue, 14 Nov 2023 22:13:20 GMT";
+
+    @TempDir
+    Path tempDir;
+
+    private final StorageService storageService = mock(StorageService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        S3Controller controller = new S3Controller(storageService, mock(ListingCache.class),
+                mock(BulkUploadService.class), mock(StreamingUploadService.class), mock(RenditionService.class));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        when(storageService.headObject(KEY)).thenReturn(new S3StorageItem(KEY, KEY, CONTENT.length(),
+                LAST_MODIFIED, LAST_MODIFIED, "/storage/view/" + KEY, "image/jpeg", ETAG));
+        when(storageService.getLocalFile(anyString())).thenReturn(Optional.empty());
+        when(storageService.getObject(KEY)).thenAnswer(invocation -> stream(CONTENT));
+        when(storageService.getObject(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            int start = (int) (long) invocation.getArgument(1);
+            int length = (int) (long) invocation.getArgument(2);
+            return stream(CONTENT.substring(start, start + length));
+        });
+    }
+
+    @Test
+    void viewObjectAnswersNotModifiedForAMatchingIfNoneMatch() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.IF_NONE_MATCH, ETAG)).andReturn();
+
+        // Assert
+        assertEquals(304, result.getResponse().getStatus());
+        assertEquals(ETAG, result.getResponse().getHeader(HttpHeaders.ETAG));
+        verify(storageService, never()).getObject(KEY);
+    }
+
+    @Test
+    void viewObjectServesARangeAsPartialContent() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4")).andReturn();
+
+        // Assert
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes 2-4/10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("234", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    void viewObjectCoalescesMultipleRanges() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=5-6,1-2")).andReturn();
+
+        // Assert
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes 1-6/10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("123456", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    void viewObjectRejectsAnUnsatisfiableRange() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=20-30")).andReturn();
+
+        // Assert
+        assertEquals(416, result.getResponse().getStatus());
+        assertEquals("bytes */10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void viewObjectSkipsRangesPastTheEnd() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4,20-30")).andReturn();
+
+        // Assert
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("bytes 2-4/10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void viewObjectServesTheRangeForACurrentIfRange() throws Exception {
+        // Act
+        MvcResult byETag = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4").header(HttpHeaders.IF_RANGE, ETAG)).andReturn();
+        MvcResult byDate = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4").header(HttpHeaders.IF_RANGE, LAST_MODIFIED_DATE)).andReturn();
+
+        // Assert
+        assertEquals(206, byETag.getResponse().getStatus());
+        assertEquals(206, byDate.getResponse().getStatus());
+    }
+
+    @Test
+    void viewObjectServesTheWholeObjectForAStaleIfRange() throws Exception {
+        // Act
+        MvcResult staleETag = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4").header(HttpHeaders.IF_RANGE, "\"v1\"")).andReturn();
+        MvcResult staleDate = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4")
+                .header(HttpHeaders.IF_RANGE, "Tue, 14 Nov 2023 22:13:21 GMT")).andReturn();
+
+        // Assert
+        assertEquals(200, staleETag.getResponse().getStatus());
+        assertNull(staleETag.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(CONTENT, staleETag.getResponse().getContentAsString());
+        assertEquals(200, staleDate.getResponse().getStatus());
+        assertEquals(CONTENT, staleDate.getResponse().getContentAsString());
+    }
+
+    @Test
+    void viewObjectNeverMatchesAWeakIfRange() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4").header(HttpHeaders.IF_RANGE, "W/" + ETAG)).andReturn();
+
+        // Assert
+        assertEquals(200, result.getResponse().getStatus());
+        assertEquals(CONTENT, result.getResponse().getContentAsString());
+    }
+
+    @Test
+    void viewObjectAnswersHeadWithoutReadingTheObject() throws Exception {
+        // Act
+        MvcResult result = mockMvc.perform(head("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4")).andReturn();
+
+        // Assert
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals("3", result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH));
+        assertEquals("bytes 2-4/10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        verify(storageService, never()).getObject(anyString());
+        verify(storageService, never()).getObject(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    void viewObjectHandsLocalFilesToSendfile() throws Exception {
+        // Arrange
+        Path file = Files.write(tempDir.resolve(KEY), CONTENT.getBytes(StandardCharsets.UTF_8));
+        when(storageService.getLocalFile(KEY)).thenReturn(Optional.of(file));
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/storage/view/" + KEY)
+                .header(HttpHeaders.RANGE, "bytes=2-4")
+                .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)).andReturn();
+
+        // Assert
+        assertEquals(206, result.getResponse().getStatus());
+        assertEquals(file.toString(), result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(2L, result.getRequest().getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(5L, result.getRequest().getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals("", result.getResponse().getContentAsString());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
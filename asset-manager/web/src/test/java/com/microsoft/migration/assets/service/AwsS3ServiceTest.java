@@ -0,0 +1,175 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.S3StoragePage;
+import com.microsoft.migration.assets.repository.ImageMetadataRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AwsS3ServiceTest {
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+    private final ImageProcessingPublisher publisher = mock(ImageProcessingPublisher.class);
+    private final ImageMetadataRepository imageMetadataRepository = mock(ImageMetadataRepository.class);
+    private final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService announceExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "announce"));
+    private AwsS3Service storageService;
+
+    @BeforeEach
+    void setUp() {
+        storageService = new AwsS3Service(s3Client, s3AsyncClient, mock(S3Presigner.class), uploadExecutor,
+                announceExecutor, publisher, imageMetadataRepository, mock(ListingCache.class),
+                new UploadTokens("test-secret", Duration.ofMinutes(15)));
+        ReflectionTestUtils.setField(storageService, "bucketName", "test-bucket");
+    }
+
+    @AfterEach
+    void tearDown() {
+        uploadExecutor.shutdownNow();
+        announceExecutor.shutdownNow();
+    }
+
+    @Test
+    void uploadObjectAsyncAnnouncesOnTheAnnounceExecutor() throws Exception {
+        // Arrange
+        MockMultipartFile file = new MockMultipartFile("file", "photo.jpg", "image/jpeg", new byte[] {1, 2, 3});
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        AtomicReference<String> announcedOn = new AtomicReference<>();
+        doAnswer(invocation -> {
+            announcedOn.set(Thread.currentThread().getName());
+            return null;
+        }).when(publisher).publish(any(ImageProcessingMessage.class));
+
+        // Act
+        storageService.uploadObjectAsync(file).get(5, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("announce", announcedOn.get());
+    }
+
+    @Test
+    void uploadObjectAsyncFailsWithoutAnnouncingWhenThePutFails() throws IOException {
+        // Arrange
+        MockMultipartFile file = new MockMultipartFile("file", "photo.jpg", "image/jpeg", new byte[] {1, 2, 3});
+        CompletableFuture<PutObjectResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(SdkClientException.create("connection reset"));
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenReturn(failed);
+
+        // Act
+        CompletableFuture<Void> upload = storageService.uploadObjectAsync(file);
+
+        // Assert
+        CompletionException error = assertThrows(CompletionException.class, upload::join);
+        assertTrue(error.getCause() instanceof SdkClientException);
+        verify(publisher, never()).publish(any(ImageProcessingMessage.class));
+    }
+
+    @Test
+    void uploadObjectReportsAFailedPutAsIOException() {
+        // Arrange
+        MockMultipartFile file = new MockMultipartFile("file", "photo.jpg", "image/jpeg", new byte[] {1, 2, 3});
+        CompletableFuture<PutObjectResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(SdkClientException.create("connection reset"));
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenReturn(failed);
+
+        // Act & Assert
+        IOException error = assertThrows(IOException.class, () -> storageService.uploadObject(file));
+        assertTrue(error.getCause() instanceof SdkClientException);
+        verify(publisher, never()).publish(any(ImageProcessingMessage.class));
+    }
+
+    @Test
+    void listObjectsReadsTheThumbnailOfTheLastOriginalOnAFullPage() {
+        // Arrange: the page is full after b.jpg, its thumbnail sorts right after it
+        bucket(10, "a.jpg", "a_thumbnail.jpg", "b.jpg", "b_thumbnail.jpg", "c.jpg", "c_thumbnail.jpg");
+
+        // Act
+        S3StoragePage page = storageService.listObjects(null, 2, null);
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "b.jpg"), keys(page));
+        assertEquals("/storage/view/b_thumbnail.jpg", page.getItems().get(1).getThumbnailUrl());
+        assertEquals("b_thumbnail.jpg", page.getContinuationToken());
+    }
+
+    @Test
+    void listObjectsReadsTheThumbnailOfTheLastOriginalFromTheNextResponse() {
+        // Arrange: S3 returns three keys at a time, so b.jpg ends the first response
+        bucket(3, "a.jpg", "a_thumbnail.jpg", "b.jpg", "b_thumbnail.jpg", "c.jpg", "c_thumbnail.jpg");
+
+        // Act
+        S3StoragePage first = storageService.listObjects(null, 2, null);
+        S3StoragePage second = storageService.listObjects(null, 2, first.getContinuationToken());
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "b.jpg"), keys(first));
+        assertEquals("/storage/view/b_thumbnail.jpg", first.getItems().get(1).getThumbnailUrl());
+        assertEquals(Arrays.asList("c.jpg"), keys(second));
+        assertEquals("/storage/view/c_thumbnail.jpg", second.getItems().get(0).getThumbnailUrl());
+        assertNull(second.getContinuationToken());
+    }
+
+    /**
+     * Answers ListObjectsV2 from the given keys, at most maxKeys per response
+     */
+    private void bucket(int maxKeys, String... keys) {
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            List<String> after = Arrays.stream(keys)
+                    .filter(key -> request.startAfter() == null || key.compareTo(request.startAfter()) > 0)
+                    .collect(Collectors.toList());
+            List<S3Object> contents = after.stream()
+                    .limit(Math.min(maxKeys, request.maxKeys()))
+                    .map(key -> S3Object.builder().key(key).size(1L).build())
+                    .collect(Collectors.toList());
+            return ListObjectsV2Response.builder()
+                    .contents(contents)
+                    .isTruncated(after.size() > contents.size())
+                    .build();
+        });
+    }
+
+    private static List<String> keys(S3StoragePage page) {
+        return page.getItems().stream().map(S3StorageItem::getKey).collect(Collectors.toList());
+    }
+}
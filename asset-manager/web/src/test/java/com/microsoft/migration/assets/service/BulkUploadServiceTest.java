@@ -0,0 +1,196 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.UploadResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkUploadServiceTest {
+
+    private final StorageService storageService = mock(StorageService.class);
+    private final List<Integer> announcedBatches = Collections.synchronizedList(new ArrayList<>());
+    private final List<Path> spooledFiles = Collections.synchronizedList(new ArrayList<>());
+    private BulkUploadService bulkUploadService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bulkUploadService = new BulkUploadService(storageService, 4);
+        ReflectionTestUtils.setField(bulkUploadService, "batchSize", 2);
+
+        // Files named fail* are rejected by storage, the first one finishes last
+        when(storageService.storeObject(any(MultipartFile.class))).thenAnswer(invocation -> {
+            MultipartFile file = invocation.getArgument(0);
+            if (file instanceof SpooledFile) {
+                spooledFiles.add((Path) ReflectionTestUtils.getField(file, "path"));
+            }
+            String filename = file.getOriginalFilename();
+            if (filename.startsWith("fail")) {
+                throw new IOException("Storage rejected " + filename);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                if (filename.startsWith("a.")) {
+                    sleep(200);
+                }
+                return "key-" + filename;
+            });
+        });
+        doAnswer(invocation -> {
+            List<UploadResult> batch = invocation.getArgument(0);
+            announcedBatches.add(batch.size());
+            return null;
+        }).when(storageService).objectsStored(anyList());
+    }
+
+    @AfterEach
+    void tearDown() {
+        bulkUploadService.shutdown();
+    }
+
+    @Test
+    void uploadFilesReportsResultsInOrderAndAnnouncesInBatches() {
+        // Arrange
+        List<MultipartFile> files = Arrays.asList(file("a.jpg"), file("b.jpg"), file("fail.jpg"),
+                file("c.jpg"), file("d.jpg"), file("e.jpg"));
+
+        // Act
+        List<UploadResult> results = bulkUploadService.uploadFiles(files);
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "b.jpg", "fail.jpg", "c.jpg", "d.jpg", "e.jpg"), filenames(results));
+        assertEquals("key-a.jpg", results.get(0).getKey());
+        assertFalse(results.get(2).isSuccess());
+        assertEquals("Storage rejected fail.jpg", results.get(2).getError());
+        assertEquals(Arrays.asList(2, 2, 1), announcedBatches);
+    }
+
+    @Test
+    void uploadArchiveSkipsNonImagesHiddenFilesAndDirectories() throws IOException {
+        // Arrange
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("photos/", null);
+        entries.put("photos/a.jpg", new byte[] {1});
+        entries.put("__MACOSX/photos/._a.jpg", new byte[] {1});
+        entries.put("photos/.hidden.png", new byte[] {1});
+        entries.put("photos/notes.txt", new byte[] {1});
+        entries.put("photos/b.png", new byte[] {1});
+        entries.put("photos/fail.gif", new byte[] {1});
+        entries.put("photos/c.gif", new byte[] {1});
+
+        // Act
+        List<UploadResult> results = bulkUploadService.uploadArchive(zip(entries));
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "notes.txt", "b.png", "fail.gif", "c.gif"), filenames(results));
+        assertEquals("Not an image", results.get(1).getError());
+        assertTrue(results.get(2).isSuccess());
+        assertFalse(results.get(3).isSuccess());
+        assertEquals("image/gif", results.get(4).getContentType());
+        assertEquals(Arrays.asList(2, 1), announcedBatches);
+    }
+
+    @Test
+    void uploadArchiveStopsAtMaxEntries() throws IOException {
+        // Arrange
+        ReflectionTestUtils.setField(bulkUploadService, "maxEntries", 2);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a.jpg", new byte[] {1});
+        entries.put("b.jpg", new byte[] {1});
+        entries.put("c.jpg", new byte[] {1});
+        entries.put("d.jpg", new byte[] {1});
+
+        // Act
+        List<UploadResult> results = bulkUploadService.uploadArchive(zip(entries));
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "b.jpg", "c.jpg"), filenames(results));
+        assertTrue(results.get(1).isSuccess());
+        assertEquals("Archive holds more than 2 files, the rest were skipped", results.get(2).getError());
+        assertEquals(Collections.singletonList(2), announcedBatches);
+    }
+
+    @Test
+    void uploadArchiveRejectsEntriesOverTheSizeCapAndDeletesSpooledFiles() throws IOException {
+        // Arrange
+        ReflectionTestUtils.setField(bulkUploadService, "maxEntrySize", DataSize.ofBytes(10));
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a.jpg", new byte[10]);
+        entries.put("large.jpg", new byte[11]);
+        entries.put("fail.jpg", new byte[5]);
+        entries.put("b.jpg", new byte[5]);
+
+        // Act
+        List<UploadResult> results = bulkUploadService.uploadArchive(zip(entries));
+
+        // Assert
+        assertEquals(Arrays.asList("a.jpg", "large.jpg", "fail.jpg", "b.jpg"), filenames(results));
+        assertEquals(10, results.get(0).getSize());
+        assertEquals("large.jpg exceeds the maximum size of 10 bytes", results.get(1).getError());
+        assertNull(results.get(1).getKey());
+        assertFalse(results.get(2).isSuccess());
+        assertEquals(3, spooledFiles.size());
+        for (Path spooled : spooledFiles) {
+            assertFalse(Files.exists(spooled), spooled + " was not deleted");
+        }
+    }
+
+    private static MockMultipartFile file(String filename) {
+        return new MockMultipartFile("files", filename, "image/jpeg", new byte[] {1, 2, 3});
+    }
+
+    private static ByteArrayInputStream zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                if (entry.getValue() != null) {
+                    zip.write(entry.getValue());
+                }
+                zip.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static List<String> filenames(List<UploadResult> results) {
+        return results.stream().map(UploadResult::getFilename).collect(Collectors.toList());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.microsoft.migration.assets.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ImageProcessingPublisherTest {
+
+    /**
+     * How the fake broker answers the next publish
+     */
+    private enum Broker { ACK, NACK_ONCE, DOWN }
+
+    @TempDir
+    Path tempDir;
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final RabbitOperations channel = mock(RabbitOperations.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+    private volatile Broker broker = Broker.ACK;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private ImageProcessingPublisher publisher;
+    private Path spillFile;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(rabbitTemplate.invoke(any(RabbitOperations.OperationsCallback.class))).thenAnswer(invocation -> {
+            attempts.incrementAndGet();
+            if (broker == Broker.DOWN) {
+                throw new AmqpConnectException(new ConnectException("refused"));
+            }
+            return ((RabbitOperations.OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(channel);
+        });
+        doAnswer(invocation -> {
+            ImageProcessingMessage message = invocation.getArgument(2);
+            CorrelationData correlation = invocation.getArgument(3);
+            if (broker == Broker.NACK_ONCE) {
+                broker = Broker.ACK;
+                correlation.getFuture().set(new CorrelationData.Confirm(false, "queue full"));
+            } else {
+                published.add(message.getKey());
+                correlation.getFuture().set(new CorrelationData.Confirm(true, null));
+            }
+            return null;
+        }).when(channel).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+
+        spillFile = tempDir.resolve("spill").resolve("image-processing.jsonl");
+        publisher = newPublisher(10000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        publisher.stop();
+    }
+
+    @Test
+    void publishesAndRecordsConfirmedMessages() throws Exception {
+        // Act
+        publisher.start();
+        publisher.publish(message("a.jpg"));
+        publisher.publish(message("b.jpg"));
+
+        // Assert
+        await(() -> published.size() == 2);
+        assertEquals(Arrays.asList("a.jpg", "b.jpg"), published);
+        await(() -> meterRegistry.get("image.processing.publish.latency").timer().count() == 2);
+        assertFalse(Files.exists(spillFile));
+    }
+
+    @Test
+    void retriesABatchTheBrokerNacked() throws Exception {
+        // Arrange
+        broker = Broker.NACK_ONCE;
+
+        // Act
+        publisher.start();
+        publisher.publish(message("a.jpg"));
+
+        // Assert
+        await(() -> published.size() == 1);
+        assertEquals(1.0, meterRegistry.get("image.processing.publish.retries").counter().count());
+        assertFalse(Files.exists(spillFile));
+    }
+
+    @Test
+    void spillsDuringAnOutageAndReplaysInOrderOnceTheBrokerIsBack() throws Exception {
+        // Arrange
+        broker = Broker.DOWN;
+        publisher.start();
+
+        // Act: the first message exhausts its attempts, the rest follow it to the spill file
+        publisher.publish(message("a.jpg"));
+        await(() -> spilledLines() == 1);
+        publisher.publish(message("b.jpg"));
+        publisher.publish(message("c.jpg"));
+
+        // Assert
+        assertEquals(3, spilledLines());
+        assertTrue(published.isEmpty());
+        assertEquals(3.0, backlog("spill"));
+
+        // Act
+        broker = Broker.ACK;
+
+        // Assert
+        await(() -> published.size() == 3);
+        assertEquals(Arrays.asList("a.jpg", "b.jpg", "c.jpg"), published);
+        await(() -> backlog("spill") == 0.0);
+        assertEquals(0, spilledLines());
+        assertEquals(3.0, meterRegistry.get("image.processing.publish.spilled").counter().count());
+
+        // Back to publishing from memory
+        publisher.publish(message("d.jpg"));
+        await(() -> published.size() == 4);
+        assertFalse(Files.exists(spillFile));
+    }
+
+    @Test
+    void replaysMessagesLeftByAPreviousRunBeforeNewOnes() throws Exception {
+        // Arrange
+        Files.createDirectories(spillFile.getParent());
+        Files.write(spillFile, (objectMapper.writeValueAsString(message("old.jpg")) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        publisher.start();
+        publisher.publish(message("new.jpg"));
+
+        // Assert
+        await(() -> published.size() == 2);
+        assertEquals(Arrays.asList("old.jpg", "new.jpg"), published);
+    }
+
+    @Test
+    void groupCommitsConcurrentSpillsWithoutLosingMessages() throws Exception {
+        // Arrange: a buffer of one sends nearly every publish to the spill file, the meters
+        // of the unstarted default publisher are shared with this one
+        publisher = newPublisher(1);
+        broker = Broker.DOWN;
+        publisher.start();
+        publisher.publish(message("first.jpg"));
+        await(() -> spilledLines() == 1);
+
+        // Act
+        int threads = 8;
+        int perThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    publisher.publish(message(thread + "-" + i + ".jpg"));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert: every publish returned only once its message was on disk
+        assertEquals(1 + threads * perThread, spilledLines());
+        assertEquals(1.0 + threads * perThread, meterRegistry.get("image.processing.publish.spilled").counter().count());
+
+        // Act
+        broker = Broker.ACK;
+
+        // Assert
+        await(() -> published.size() == 1 + threads * perThread);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            List<String> ofThread = published.stream()
+                    .filter(key -> key.startsWith(thread + "-"))
+                    .collect(Collectors.toList());
+            assertEquals(IntStream.range(0, perThread).mapToObj(i -> thread + "-" + i + ".jpg")
+                    .collect(Collectors.toList()), ofThread);
+        }
+    }
+
+    @Test
+    void spillsHeldAndBufferedMessagesWhenStoppedDuringBackoff() throws Exception {
+        // Arrange: the dispatcher holds a failed batch while it backs off
+        broker = Broker.DOWN;
+        ReflectionTestUtils.setField(publisher, "maxAttempts", 100);
+        ReflectionTestUtils.setField(publisher, "initialBackoff", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(publisher, "maxBackoff", Duration.ofSeconds(30));
+        publisher.start();
+        List<String> keys = IntStream.range(0, 20).mapToObj(i -> i + ".jpg").collect(Collectors.toList());
+        keys.forEach(key -> publisher.publish(message(key)));
+        await(() -> attempts.get() > 0);
+
+        // Act
+        publisher.stop();
+
+        // Assert
+        assertEquals(keys.size(), lines(spillFile));
+
+        // Act: the next run replays them
+        broker = Broker.ACK;
+        publisher = newPublisher(10000);
+        publisher.start();
+
+        // Assert
+        await(() -> published.size() == keys.size());
+        assertEquals(keys, published);
+    }
+
+    private ImageProcessingPublisher newPublisher(int bufferSize) {
+        ImageProcessingPublisher newPublisher = new ImageProcessingPublisher(rabbitTemplate, objectMapper,
+                meterRegistry, bufferSize);
+        ReflectionTestUtils.setField(newPublisher, "spillFileName", spillFile.toString());
+        ReflectionTestUtils.setField(newPublisher, "maxAttempts", 2);
+        ReflectionTestUtils.setField(newPublisher, "initialBackoff", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(newPublisher, "maxBackoff", Duration.ofMillis(20));
+        ReflectionTestUtils.setField(newPublisher, "confirmTimeout", Duration.ofSeconds(1));
+        return newPublisher;
+    }
+
+    private ImageProcessingMessage message(String key) {
+        return new ImageProcessingMessage(key, "image/jpeg", "s3", 100);
+    }
+
+    /**
+     * Messages on disk, in the spill file and in the copy being replayed
+     */
+    private long spilledLines() {
+        return lines(spillFile) + lines(spillFile.resolveSibling(spillFile.getFileName() + ".replay"));
+    }
+
+    private static long lines(Path file) {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(line -> !line.isEmpty()).count();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private double backlog(String location) {
+        return meterRegistry.get("image.processing.publish.backlog").tag("location", location).gauge().value();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 10 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.S3StoragePage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ListingCacheTest {
+
+    private final ListingCache listingCache = new ListingCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(5));
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void invalidateDropsThePageWhoseRangeContainsTheKey() {
+        // Arrange: the second page covers (b.jpg, d.jpg]
+        getPage("", "b.jpg", "d.jpg");
+
+        // Act
+        listingCache.invalidate("c.jpg");
+        getPage("", "b.jpg", "d.jpg");
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidateDropsThePageEndingAtTheKey() {
+        // Arrange
+        getPage("", "b.jpg", "d.jpg");
+
+        // Act
+        listingCache.invalidate("d.jpg");
+        getPage("", "b.jpg", "d.jpg");
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidateKeepsPagesOutsideTheKeyRange() {
+        // Arrange
+        getPage("", "b.jpg", "d.jpg");
+
+        // Act: startAfter itself belongs to the previous page
+        listingCache.invalidate("b.jpg");
+        listingCache.invalidate("a.jpg");
+        listingCache.invalidate("e.jpg");
+        getPage("", "b.jpg", "d.jpg");
+
+        // Assert
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidateKeepsPagesOfOtherPrefixes() {
+        // Arrange
+        getPage("cats/", null, null);
+
+        // Act
+        listingCache.invalidate("dogs/rex.jpg");
+        getPage("cats/", null, null);
+
+        // Assert
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void theLastPageExtendsToTheEndOfTheKeySpace() {
+        // Arrange: the last page returned no continuation token
+        getPage("", "m.jpg", null);
+
+        // Act
+        listingCache.invalidate("zzz.jpg");
+        getPage("", "m.jpg", null);
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void aLoadRacingAnInvalidationIsNotCached() {
+        // Arrange: an object changes while the page is being listed
+        listingCache.getPage("", 10, null, () -> {
+            loads.incrementAndGet();
+            listingCache.invalidate("x.jpg");
+            return new S3StoragePage(Collections.emptyList(), null);
+        });
+
+        // Act
+        getPage("", null, null);
+
+        // Assert
+        assertEquals(2, loads.get());
+    }
+
+    private void getPage(String prefix, String continuationToken, String nextToken) {
+        listingCache.getPage(prefix, 10, continuationToken, () -> {
+            loads.incrementAndGet();
+            return new S3StoragePage(Collections.emptyList(), nextToken);
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.model.UploadIntent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class LocalFileStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ImageProcessingPublisher publisher = mock(ImageProcessingPublisher.class);
+    private final ListingCache listingCache = mock(ListingCache.class);
+    private final UploadTokens uploadTokens = new UploadTokens("test-secret", Duration.ofMinutes(15));
+    private LocalFileStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storageService = new LocalFileStorageService(publisher, listingCache, uploadTokens);
+        ReflectionTestUtils.setField(storageService, "storageDirectory", tempDir.toString());
+        storageService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storageService.close();
+    }
+
+    @Test
+    void completeUploadAnnouncesEachIntentOnce() throws IOException {
+        // Arrange
+        byte[] image = new byte[] {1, 2, 3, 4};
+        UploadIntent intent = storageService.createUploadIntent("photo.png", "image/png", image.length);
+        storageService.storeDirectUpload(intent.getToken(), "image/png", new ByteArrayInputStream(image));
+
+        // Act
+        storageService.completeUpload(intent.getToken());
+        storageService.completeUpload(intent.getToken());
+
+        // Assert
+        verify(publisher, times(1)).publish(any(ImageProcessingMessage.class));
+    }
+
+    @Test
+    void completeUploadRejectsTokensItDidNotIssue() throws IOException {
+        // Arrange
+        Files.write(tempDir.resolve("photo.png"), new byte[] {1, 2, 3, 4});
+        String forged = new UploadTokens("other-secret", Duration.ofMinutes(15))
+                .issue("photo.png", "image/png", 4, Instant.now().plusSeconds(60));
+
+        // Act & Assert
+        assertThrows(SecurityException.class, () -> storageService.completeUpload(forged));
+        verify(publisher, never()).publish(any(ImageProcessingMessage.class));
+    }
+
+    @Test
+    void completeUploadRejectsFilesThatAreNotTheIssuedImage() throws IOException {
+        // Arrange
+        Files.write(tempDir.resolve("notes.txt"), new byte[] {1, 2, 3, 4});
+        String text = uploadTokens.issue("notes.txt", "image/png", 4, Instant.now().plusSeconds(60));
+        Files.write(tempDir.resolve("photo.png"), new byte[] {1, 2, 3, 4, 5});
+        String resized = uploadTokens.issue("photo.png", "image/png", 4, Instant.now().plusSeconds(60));
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> storageService.completeUpload(text));
+        assertThrows(IllegalArgumentException.class, () -> storageService.completeUpload(resized));
+        verify(publisher, never()).publish(any(ImageProcessingMessage.class));
+    }
+
+    @Test
+    void completeUploadReportsMissingFiles() {
+        // Arrange
+        String token = uploadTokens.issue("missing.png", "image/png", 4, Instant.now().plusSeconds(60));
+
+        // Act & Assert
+        assertThrows(FileNotFoundException.class, () -> storageService.completeUpload(token));
+    }
+
+    @Test
+    void completeUploadAcceptsTokensWithinTheGracePeriod() throws IOException {
+        // Arrange
+        Files.write(tempDir.resolve("photo.png"), new byte[] {1, 2, 3, 4});
+        String expired = uploadTokens.issue("photo.png", "image/png", 4, Instant.now().minusSeconds(60));
+        String lapsed = uploadTokens.issue("photo.png", "image/png", 4, Instant.now().minus(Duration.ofMinutes(20)));
+
+        // Act
+        storageService.completeUpload(expired);
+
+        // Assert
+        assertThrows(SecurityException.class, () -> storageService.completeUpload(lapsed));
+        assertThrows(SecurityException.class,
+                () -> storageService.storeDirectUpload(expired, "image/png", new ByteArrayInputStream(new byte[4])));
+        verify(publisher, times(1)).publish(any(ImageProcessingMessage.class));
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.model.S3StorageItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class LocalStorageIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reconcilePicksUpAFileReplacedBehindTheIndex() throws IOException {
+        // Arrange: the watcher is not started, as for a write by another NFS client
+        LocalStorageIndex index = new LocalStorageIndex(tempDir, name -> "/storage/view/" + name, Duration.ofMinutes(5));
+        Path file = Files.write(tempDir.resolve("photo.jpg"), new byte[10]);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2024-01-01T00:00:00Z")));
+        index.reconcile();
+
+        Instant replacedAt = Instant.parse("2024-06-01T12:00:00Z");
+        Files.write(file, new byte[25]);
+        Files.setLastModifiedTime(file, FileTime.from(replacedAt));
+
+        // Act
+        index.reconcile();
+
+        // Assert
+        S3StorageItem item = onlyItem(index);
+        assertEquals(25, item.getSize());
+        assertEquals(replacedAt, item.getLastModified());
+    }
+
+    @Test
+    void reconcileKeepsEntriesOfUnchangedFiles() throws IOException {
+        // Arrange
+        LocalStorageIndex index = new LocalStorageIndex(tempDir, name -> "/storage/view/" + name, Duration.ofMinutes(5));
+        Files.write(tempDir.resolve("photo.jpg"), new byte[10]);
+        index.reconcile();
+        S3StorageItem before = onlyItem(index);
+
+        // Act
+        index.reconcile();
+
+        // Assert
+        assertSame(before, onlyItem(index));
+    }
+
+    @Test
+    void reconcileDropsDeletedFiles() throws IOException {
+        // Arrange
+        LocalStorageIndex index = new LocalStorageIndex(tempDir, name -> "/storage/view/" + name, Duration.ofMinutes(5));
+        Path file = Files.write(tempDir.resolve("photo.jpg"), new byte[10]);
+        index.reconcile();
+        Files.delete(file);
+
+        // Act
+        index.reconcile();
+
+        // Assert
+        assertFalse(index.contains("photo.jpg"));
+    }
+
+    private static S3StorageItem onlyItem(LocalStorageIndex index) {
+        List<S3StorageItem> items = index.list(null, 10, null, name -> true).getItems();
+        assertEquals(1, items.size());
+        return items.get(0);
+    }
+}
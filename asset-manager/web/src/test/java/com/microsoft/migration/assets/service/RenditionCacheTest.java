@@ -0,0 +1,86 @@
+package com.microsoft.migration.assets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.microsoft.migration.assets.model.Rendition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RenditionCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void evictsLeastRecentlyUsedFilesUntilUnderTheDiskSize() throws IOException {
+        // Arrange
+        RenditionCache cache = newCache(DataSize.ofBytes(25));
+        cache.put("a", "png", rendition(10));
+        cache.put("b", "png", rendition(10));
+        // Read a from disk, which makes b the least recently used
+        clearMemory(cache);
+        assertNotNull(cache.get("a", "png"));
+
+        // Act
+        cache.put("c", "png", rendition(10));
+
+        // Assert
+        assertEquals(20, diskBytes());
+        RenditionCache reopened = newCache(DataSize.ofMegabytes(1));
+        assertNotNull(reopened.get("a", "png"));
+        assertNull(reopened.get("b", "png"));
+        assertNotNull(reopened.get("c", "png"));
+    }
+
+    @Test
+    void keepsTheFileJustWrittenEvenWhenItExceedsTheDiskSize() throws IOException {
+        // Arrange
+        RenditionCache cache = newCache(DataSize.ofBytes(25));
+        cache.put("a", "png", rendition(10));
+        cache.put("b", "png", rendition(10));
+
+        // Act
+        cache.put("large", "png", rendition(40));
+
+        // Assert
+        assertEquals(40, diskBytes());
+        RenditionCache reopened = newCache(DataSize.ofMegabytes(1));
+        assertNotNull(reopened.get("large", "png"));
+        assertNull(reopened.get("a", "png"));
+        assertNull(reopened.get("b", "png"));
+    }
+
+    private RenditionCache newCache(DataSize diskSize) throws IOException {
+        RenditionCache cache = new RenditionCache(new SimpleMeterRegistry(), DataSize.ofMegabytes(1));
+        ReflectionTestUtils.setField(cache, "directoryName", tempDir.toString());
+        ReflectionTestUtils.setField(cache, "maxDiskSize", diskSize);
+        cache.init();
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void clearMemory(RenditionCache cache) {
+        ((Cache<String, Rendition>) ReflectionTestUtils.getField(cache, "memory")).invalidateAll();
+    }
+
+    private long diskBytes() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static Rendition rendition(int size) {
+        return new Rendition(new byte[size], "image/png");
+    }
+}
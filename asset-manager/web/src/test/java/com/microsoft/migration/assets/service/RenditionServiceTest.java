@@ -0,0 +1,135 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.imaging.Fit;
+import com.microsoft.migration.assets.model.Rendition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RenditionServiceTest {
+
+    private static final int CALLERS = 8;
+
+    private final StorageService storageService = mock(StorageService.class);
+    private final RenditionCache cache = mock(RenditionCache.class);
+    private final AtomicInteger cacheLookups = new AtomicInteger();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final CountDownLatch readStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseRead = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private RenditionService renditionService;
+
+    @BeforeEach
+    void setUp() {
+        renditionService = new RenditionService(storageService, cache, 4);
+        when(storageService.getLocalFile(anyString())).thenReturn(Optional.empty());
+        when(cache.get(anyString(), anyString())).thenAnswer(invocation -> {
+            cacheLookups.incrementAndGet();
+            return null;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentRequestsForTheSameRenditionDecodeOnce() throws Exception {
+        // Arrange
+        byte[] png = png(400, 200);
+        when(storageService.getObject("photo.png")).thenAnswer(invocation -> {
+            reads.incrementAndGet();
+            readStarted.countDown();
+            releaseRead.await(10, TimeUnit.SECONDS);
+            return new ByteArrayInputStream(png);
+        });
+
+        // Act
+        List<Future<Rendition>> renditions = requestConcurrently();
+
+        // Assert
+        Rendition first = renditions.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<Rendition> rendition : renditions) {
+            assertSame(first, rendition.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, reads.get());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(first.getContent()));
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+    }
+
+    @Test
+    void aFailedRenderReachesEveryWaitingCaller() throws Exception {
+        // Arrange
+        when(storageService.getObject("photo.png")).thenAnswer(invocation -> {
+            reads.incrementAndGet();
+            readStarted.countDown();
+            releaseRead.await(10, TimeUnit.SECONDS);
+            throw new IOException("storage unavailable");
+        });
+
+        // Act
+        List<Future<Rendition>> renditions = requestConcurrently();
+
+        // Assert
+        for (Future<Rendition> rendition : renditions) {
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> rendition.get(10, TimeUnit.SECONDS));
+            assertTrue(error.getCause() instanceof IOException);
+            assertEquals("storage unavailable", error.getCause().getMessage());
+        }
+        assertEquals(1, reads.get());
+    }
+
+    /**
+     * Starts all callers and holds the first render until every caller has looked in the cache
+     * and is waiting for it
+     */
+    private List<Future<Rendition>> requestConcurrently() throws InterruptedException {
+        List<Future<Rendition>> renditions = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            renditions.add(executor.submit(
+                    () -> renditionService.getRendition("photo.png", "v1", 100, 100, Fit.CONTAIN)));
+        }
+        assertTrue(readStarted.await(10, TimeUnit.SECONDS));
+        // The rendering caller looks twice, before and after claiming the render
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (cacheLookups.get() < CALLERS + 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        releaseRead.countDown();
+        return renditions;
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+}
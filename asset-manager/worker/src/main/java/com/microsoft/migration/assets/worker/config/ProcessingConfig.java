@@ -0,0 +1,62 @@
+package com.microsoft.migration.assets.worker.config;
+
+import com.microsoft.migration.assets.imaging.Java2dResamplingEngine;
+import com.microsoft.migration.assets.imaging.ResamplingEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ProcessingConfig {
+
+    @Value("${image.processing.upload-threads:4}")
+    private int uploadThreads;
+
+    @Value("${image.processing.batch.parallelism:4}")
+    private int batchParallelism;
+
+    /**
+     * Default resampling engine, replaced by the raster engine when
+     * image.processing.resampling.engine=raster
+     */
+    @Bean
+    @ConditionalOnProperty(name = "image.processing.resampling.engine", havingValue = "java2d", matchIfMissing = true)
+    public ResamplingEngine java2dResamplingEngine() {
+        return new Java2dResamplingEngine();
+    }
+
+    /**
+     * Encodes and uploads thumbnail renditions in parallel.
+     * When the pool is saturated the listener thread does the work itself, which throttles consumption.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor renditionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(uploadThreads);
+        executor.setMaxPoolSize(uploadThreads);
+        executor.setQueueCapacity(uploadThreads * 4);
+        executor.setThreadNamePrefix("rendition-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Processes the messages of a consumed batch concurrently.
+     * Kept separate from the rendition pool so batch tasks never wait on uploads queued behind them.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor batchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(batchParallelism);
+        executor.setMaxPoolSize(batchParallelism);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("batch-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
@@ -1,24 +1,110 @@
 package com.microsoft.migration.assets.worker.config;
 
+import com.microsoft.migration.assets.worker.service.AdaptiveConcurrencyController;
+import com.microsoft.migration.assets.worker.service.FileProcessor;
+import com.microsoft.migration.assets.worker.service.RetryScheduler;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.HeadersExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class RabbitConfig {
-    public static final String IMAGE_PROCESSING_QUEUE = "image-processing";
+    /**
+     * Topic exchange for image messages, routed by storage type ("s3", "local")
+     */
+    public static final String IMAGE_PROCESSING_EXCHANGE = "image-processing";
+
+    /**
+     * Headers exchange routing delayed copies to the retry tier queue matching their delay
+     */
+    public static final String IMAGE_PROCESSING_RETRY_EXCHANGE = "image-processing.retry";
+
+    /**
+     * Dead-letter exchange and queue for messages that exhausted their retries
+     */
+    public static final String IMAGE_PROCESSING_PARKING_LOT = "image-processing.parking-lot";
+
+    /**
+     * Topic exchange for objects written by the worker, routed by storage type
+     */
+    public static final String STORAGE_EVENTS_EXCHANGE = "storage-events";
+
+    /**
+     * Queue consumed by the workers of one storage type
+     */
+    public static String imageProcessingQueue(String storageType) {
+        return IMAGE_PROCESSING_EXCHANGE + "." + storageType;
+    }
+
+    @Bean
+    public TopicExchange imageProcessingExchange() {
+        return new TopicExchange(IMAGE_PROCESSING_EXCHANGE);
+    }
+
+    /**
+     * Binds only the queue of the storage type this worker processes.
+     * Rejected messages are dead-lettered to the parking lot.
+     */
+    @Bean
+    public Declarables imageProcessingQueues(FileProcessor fileProcessor) {
+        Queue queue = QueueBuilder.durable(imageProcessingQueue(fileProcessor.getStorageType()))
+                .deadLetterExchange(IMAGE_PROCESSING_PARKING_LOT)
+                .build();
+        return new Declarables(queue,
+                BindingBuilder.bind(queue).to(imageProcessingExchange()).with(fileProcessor.getStorageType()));
+    }
+
+    /**
+     * One queue per backoff delay. Nothing consumes them: the TTL dead-letters each copy back to
+     * the image-processing exchange, keeping the storage-type routing key it was published with.
+     */
+    @Bean
+    public Declarables imageProcessingRetryQueues(RetryScheduler retryScheduler) {
+        HeadersExchange retryExchange = new HeadersExchange(IMAGE_PROCESSING_RETRY_EXCHANGE);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(retryExchange);
+        retryScheduler.getDelays().stream().distinct().forEach(delay -> {
+            Queue queue = QueueBuilder.durable(IMAGE_PROCESSING_RETRY_EXCHANGE + "." + delay + "ms")
+                    .ttl(delay.intValue())
+                    .deadLetterExchange(IMAGE_PROCESSING_EXCHANGE)
+                    .build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(retryExchange)
+                    .where(RetryScheduler.DELAY_HEADER).matches(String.valueOf(delay)));
+        });
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    public Declarables imageProcessingParkingLot() {
+        FanoutExchange exchange = new FanoutExchange(IMAGE_PROCESSING_PARKING_LOT);
+        Queue queue = QueueBuilder.durable(IMAGE_PROCESSING_PARKING_LOT).build();
+        return new Declarables(exchange, queue, BindingBuilder.bind(queue).to(exchange));
+    }
 
+    /**
+     * Each web instance binds its own transient queue to receive the events
+     */
     @Bean
-    public Queue imageProcessingQueue() {
-        return QueueBuilder.durable(IMAGE_PROCESSING_QUEUE)
-        .build();
+    public TopicExchange storageEventsExchange() {
+        return new TopicExchange(STORAGE_EVENTS_EXCHANGE);
     }
 
     @Bean
@@ -29,12 +115,46 @@ public class RabbitConfig {
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            SimpleRabbitListenerContainerFactoryConfigurer configurer) {
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            AdaptiveConcurrencyController concurrencyController) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configureFactory(factory, connectionFactory, configurer, concurrencyController);
+        return factory;
+    }
+
+    /**
+     * Container factory for the batch listener: delivers up to batch.size messages at once,
+     * or fewer once batch.timeout-ms passes without another delivery.
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            AdaptiveConcurrencyController concurrencyController,
+            @Value("${image.processing.batch.size:20}") int batchSize,
+            @Value("${image.processing.batch.timeout-ms:500}") long batchTimeoutMs) {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configureFactory(factory, connectionFactory, configurer, concurrencyController);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchTimeoutMs);
+        return factory;
+    }
+
+    private void configureFactory(SimpleRabbitListenerContainerFactory factory,
+                                  ConnectionFactory connectionFactory,
+                                  SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                  AdaptiveConcurrencyController concurrencyController) {
         configurer.configure(factory, connectionFactory);
         factory.setMessageConverter(jsonMessageConverter());
         factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
-        return factory;
+        if (concurrencyController.isAdaptive()) {
+            // Start at the floor and let the controller grow consumers from measurements
+            factory.setConcurrentConsumers(concurrencyController.getConsumers());
+            factory.setPrefetchCount(concurrencyController.getPrefetch());
+            factory.setAdviceChain(concurrencyController);
+        }
     }
 
 }
@@ -1,15 +1,28 @@
 package com.microsoft.migration.assets.worker.model;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
+import javax.persistence.Table;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
 
 @Entity
+@Table(indexes = @Index(name = "idx_image_metadata_s3_key", columnList = "s3Key", unique = true))
 @Data
 @NoArgsConstructor
 public class ImageMetadata {
@@ -22,6 +35,12 @@ public class ImageMetadata {
     private String s3Url;
     private String thumbnailKey;
     private String thumbnailUrl;
+    @ElementCollection(fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SUBSELECT)
+    @CollectionTable(name = "image_metadata_rendition", joinColumns = @JoinColumn(name = "image_metadata_id"))
+    @MapKeyColumn(name = "rendition_size")
+    @Column(name = "rendition_key")
+    private Map<Integer, String> renditionKeys = new HashMap<>();
     private LocalDateTime uploadedAt;
     private LocalDateTime lastModified;
 
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -12,4 +14,9 @@ public class ImageProcessingMessage {
     private String contentType;
     private String storageType; // "s3" or "local"
     private long size;
+    private List<Integer> renditions; // longest edge of each thumbnail rendition, null for the worker defaults
+
+    public ImageProcessingMessage(String key, String contentType, String storageType, long size) {
+        this(key, contentType, storageType, size, null);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.microsoft.migration.assets.worker.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Idempotency ledger entry: the source version a thumbnail set was last generated from
+ */
+@Entity
+@Data
+@NoArgsConstructor
+public class ProcessedImage {
+    @Id
+    private String id; // "<storageType>:<key>"
+    private String storageType;
+    private String sourceKey;
+    private String sourceETag;
+    private Long sourceSize;
+    private String thumbnailKey;
+    private LocalDateTime processedAt;
+
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        processedAt = LocalDateTime.now();
+    }
+}
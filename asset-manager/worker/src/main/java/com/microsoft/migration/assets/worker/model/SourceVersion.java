@@ -0,0 +1,16 @@
+package com.microsoft.migration.assets.worker.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Identifies one version of an original image in storage
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SourceVersion {
+    private String eTag;
+    private long size;
+}
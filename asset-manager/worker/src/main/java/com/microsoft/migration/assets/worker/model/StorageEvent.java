@@ -0,0 +1,19 @@
+package com.microsoft.migration.assets.worker.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Announces objects the worker wrote to storage, so listings showing them can be refreshed
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageEvent {
+    private String storageType; // "s3" or "local"
+    private String originalKey;
+    private List<String> keys;
+}
@@ -4,7 +4,14 @@ import com.microsoft.migration.assets.worker.model.ImageMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface ImageMetadataRepository extends JpaRepository<ImageMetadata, String> {
     // Basic CRUD operations are automatically provided by JpaRepository
-}
\ No newline at end of file
+
+    /**
+     * Look up metadata by storage key (backed by the unique s3Key index)
+     */
+    Optional<ImageMetadata> findByS3Key(String s3Key);
+}
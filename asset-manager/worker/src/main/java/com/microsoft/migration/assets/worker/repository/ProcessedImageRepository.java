@@ -0,0 +1,9 @@
+package com.microsoft.migration.assets.worker.repository;
+
+import com.microsoft.migration.assets.worker.model.ProcessedImage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ProcessedImageRepository extends JpaRepository<ProcessedImage, String> {
+}
@@ -1,276 +1,486 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.imaging.ImageDecoder;
+import com.microsoft.migration.assets.imaging.ImageEncoder;
+import com.microsoft.migration.assets.imaging.Java2dResamplingEngine;
+import com.microsoft.migration.assets.imaging.ResamplingEngine;
+import com.microsoft.migration.assets.worker.config.RabbitConfig;
 import com.microsoft.migration.assets.worker.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.worker.model.SourceVersion;
 import com.microsoft.migration.assets.worker.util.StorageUtil;
 import com.rabbitmq.client.Channel;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.Header;
 
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-
-import static com.microsoft.migration.assets.worker.config.RabbitConfig.IMAGE_PROCESSING_QUEUE;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 public abstract class AbstractFileProcessingService implements FileProcessor {
 
-    @RabbitListener(queues = IMAGE_PROCESSING_QUEUE)
+    static {
+        // Thumbnails are decoded and encoded entirely in memory, so keep ImageIO
+        // from spilling stream caches into the temp directory
+        ImageIO.setUseCache(false);
+    }
+
+    @Value("${image.processing.streaming:true}")
+    private boolean streaming = true;
+
+    @Value("${image.processing.max-aspect-ratio:20}")
+    private double maxAspectRatio = 20;
+
+    /**
+     * Longest edge of each rendition generated when the message does not ask for specific sizes
+     */
+    @Value("${image.processing.renditions:150,600,1200}")
+    private List<Integer> defaultRenditions = Arrays.asList(150, 600, 1200);
+
+    /**
+     * Rendition size stored under the plain thumbnail key and recorded as the image thumbnail
+     */
+    @Value("${image.processing.thumbnail-size:600}")
+    private int thumbnailSize = 600;
+
+    private Executor renditionExecutor = Runnable::run;
+
+    private Executor batchExecutor = Runnable::run;
+
+    private ProcessingLedger ledger;
+
+    private ThumbnailMetrics metrics;
+
+    private ResamplingEngine resamplingEngine = new Java2dResamplingEngine();
+
+    private RetryScheduler retryScheduler;
+
+    private StorageEventPublisher eventPublisher;
+
+    @Autowired(required = false)
+    public void setRenditionExecutor(@Qualifier("renditionExecutor") Executor renditionExecutor) {
+        this.renditionExecutor = renditionExecutor;
+    }
+
+    @Autowired(required = false)
+    public void setResamplingEngine(ResamplingEngine resamplingEngine) {
+        this.resamplingEngine = resamplingEngine;
+    }
+
+    @Autowired(required = false)
+    public void setRetryScheduler(RetryScheduler retryScheduler) {
+        this.retryScheduler = retryScheduler;
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(ThumbnailMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Autowired(required = false)
+    public void setEventPublisher(StorageEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Autowired(required = false)
+    public void setLedger(ProcessingLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    @Autowired(required = false)
+    public void setBatchExecutor(@Qualifier("batchExecutor") Executor batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * Queue of this processor's storage type, so the broker only delivers messages it handles
+     */
+    public String getProcessingQueue() {
+        return RabbitConfig.imageProcessingQueue(getStorageType());
+    }
+
+    @RabbitListener(queues = "#{__listener.processingQueue}", autoStartup = "#{!${image.processing.batch.enabled:false}}")
     public void processImage(final ImageProcessingMessage message, 
                            Channel channel, 
-                           @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+                           @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                           @Header(name = AmqpHeaders.TIMESTAMP, required = false) Date publishedAt,
+                           @Header(name = RetryScheduler.ATTEMPT_HEADER, required = false) Integer attempt) {
+        if (metrics != null) {
+            metrics.recordQueueWait(message.getStorageType(), publishedAt);
+        }
+        boolean processingSuccess = handleMessage(message);
+        try {
+            if (processingSuccess) {
+                // Acknowledge the message if processing was successful
+                channel.basicAck(deliveryTag, false);
+                log.debug("Message acknowledged for: {}", message.getKey());
+            } else if (settleFailure(message, attempt, deliveryTag, channel)) {
+                // A copy now waits in a retry queue, so this delivery is done
+                channel.basicAck(deliveryTag, false);
+            }
+        } catch (IOException e) {
+            log.error("Error handling RabbitMQ acknowledgment for: {}", message.getKey(), e);
+        }
+    }
+
+    /**
+     * Processes a batch of up to image.processing.batch.size messages concurrently.
+     * Failures are rescheduled or parked one by one like in {@link #processImage}, then all
+     * successes and rescheduled failures are settled with a single cumulative acknowledgment.
+     */
+    @RabbitListener(queues = "#{__listener.processingQueue}", containerFactory = "batchRabbitListenerContainerFactory",
+            autoStartup = "${image.processing.batch.enabled:false}")
+    public void processImageBatch(final List<Message<ImageProcessingMessage>> messages, Channel channel) {
+        if (metrics != null) {
+            messages.forEach(message -> metrics.recordQueueWait(message.getPayload().getStorageType(),
+                    message.getHeaders().get(AmqpHeaders.TIMESTAMP, Date.class)));
+        }
+        List<CompletableFuture<Boolean>> results = messages.stream()
+                .map(message -> CompletableFuture.supplyAsync(() -> handleMessage(message.getPayload()), batchExecutor))
+                .collect(Collectors.toList());
+
+        long lastSuccessTag = -1;
+        for (int i = 0; i < messages.size(); i++) {
+            ImageProcessingMessage message = messages.get(i).getPayload();
+            long deliveryTag = messages.get(i).getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+            Integer attempt = messages.get(i).getHeaders().get(RetryScheduler.ATTEMPT_HEADER, Integer.class);
+            try {
+                // Parked or requeued failures are rejected individually before the cumulative ack can cover them
+                if (results.get(i).join() || settleFailure(message, attempt, deliveryTag, channel)) {
+                    lastSuccessTag = Math.max(lastSuccessTag, deliveryTag);
+                }
+            } catch (IOException e) {
+                log.error("Error handling RabbitMQ acknowledgment for: {}", message.getKey(), e);
+            }
+        }
+
+        if (lastSuccessTag >= 0) {
+            try {
+                // Acknowledge every remaining delivery up to and including the last success
+                channel.basicAck(lastSuccessTag, true);
+                log.debug("Batch of {} messages acknowledged up to delivery tag {}", messages.size(), lastSuccessTag);
+            } catch (IOException e) {
+                log.error("Error acknowledging batch up to delivery tag {}", lastSuccessTag, e);
+            }
+        }
+    }
+
+    /**
+     * Hands a failed message to the retry tiers. Returns true when the broker confirmed a delayed
+     * copy and the delivery should be acknowledged; otherwise the delivery has been rejected,
+     * either without requeue once attempts are exhausted (the queue dead-letters it to the
+     * parking lot) or with requeue when the copy was not confirmed or could not be routed.
+     */
+    private boolean settleFailure(ImageProcessingMessage message, Integer attempt, long deliveryTag,
+                                  Channel channel) throws IOException {
+        try {
+            if (retryScheduler != null && retryScheduler.scheduleRetry(message, attempt == null ? 1 : attempt)) {
+                return true;
+            }
+            channel.basicNack(deliveryTag, false, false);
+            log.debug("Message rejected and dead-lettered to the parking lot: {}", message.getKey());
+        } catch (AmqpException e) {
+            log.warn("Could not schedule retry for {}, requeueing", message.getKey(), e);
+            channel.basicNack(deliveryTag, false, true);
+        }
+        return false;
+    }
+
+    /**
+     * Runs the thumbnail pipeline for one message and reports whether it can be acknowledged.
+     */
+    protected boolean handleMessage(ImageProcessingMessage message) {
         boolean processingSuccess = false;
         Path tempDir = null;
-        Path originalFile = null;
-        Path thumbnailFile = null;
+        ProcessingTrace trace = null;
 
         try {
             log.info("Processing image: {}", message.getKey());
 
-            tempDir = Files.createTempDirectory("image-processing");
-            originalFile = tempDir.resolve("original" + StorageUtil.getExtension(message.getKey()));
-            thumbnailFile = tempDir.resolve("thumbnail" + StorageUtil.getExtension(message.getKey()));
+            // Routing delivers only our storage type, this guards against misrouted messages
+            if (!message.getStorageType().equals(getStorageType())) {
+                log.debug("Skipping message with storage type: {} (we handle {})",
+                    message.getStorageType(), getStorageType());
+                // This is not an error, just not for this service, so we can acknowledge
+                return true;
+            }
 
-            // Only process if message matches our storage type
-            if (message.getStorageType().equals(getStorageType())) {
-                // Download original file
-                downloadOriginal(message.getKey(), originalFile);
+            // A redelivery of an original we already processed needs no work
+            long start = System.nanoTime();
+            SourceVersion source = ledger != null ? describeOriginal(message.getKey()) : null;
+            if (source != null && isAlreadyProcessed(message.getKey(), source)) {
+                log.info("Thumbnails already up to date, skipping image: {}", message.getKey());
+                processingSuccess = true;
+            } else {
+                trace = new ProcessingTrace();
+                trace.record(ProcessingTrace.Stage.METADATA, start);
+                trace.setBytesIn(source != null ? source.getSize() : message.getSize());
+                List<Integer> sizes = renditionSizes(message);
+                Map<Integer, BufferedImage> renditions;
 
-                // Generate thumbnail
-                generateThumbnail(originalFile, thumbnailFile);
+                if (streaming) {
+                    // Decode from the storage stream and upload from memory, no temp files
+                    // (download time covers the first byte, the transfer itself overlaps with decoding)
+                    start = System.nanoTime();
+                    try (InputStream original = openOriginal(message.getKey())) {
+                        trace.record(ProcessingTrace.Stage.DOWNLOAD, start);
+                        try (ImageInputStream inputStream = ImageIO.createImageInputStream(original)) {
+                            renditions = generateThumbnails(inputStream, sizes, trace);
+                        }
+                    }
+                } else {
+                    tempDir = Files.createTempDirectory("image-processing");
+                    Path originalFile = tempDir.resolve("original" + StorageUtil.getExtension(message.getKey()));
 
-                // Upload thumbnail
-                String thumbnailKey = StorageUtil.getThumbnailKey(message.getKey());
-                uploadThumbnail(thumbnailFile, thumbnailKey, message.getContentType());
+                    // Download original file
+                    start = System.nanoTime();
+                    downloadOriginal(message.getKey(), originalFile);
+                    trace.record(ProcessingTrace.Stage.DOWNLOAD, start);
+
+                    try (ImageInputStream inputStream = ImageIO.createImageInputStream(originalFile.toFile())) {
+                        renditions = generateThumbnails(inputStream, sizes, trace);
+                    }
+                }
+                if (renditions == null) {
+                    throw new IOException("Could not decode image: " + message.getKey());
+                }
+
+                // Encode and upload every rendition in parallel, then record them together
+                Map<Integer, String> renditionKeys = uploadRenditions(message, renditions, tempDir, trace);
+                String thumbnailKey = renditionKeys.get(closestSize(renditionKeys.keySet()));
+                start = System.nanoTime();
+                recordRenditions(message.getKey(), renditionKeys, thumbnailKey);
+                if (source != null) {
+                    ledger.record(getStorageType(), message.getKey(), source, thumbnailKey);
+                }
+                trace.record(ProcessingTrace.Stage.METADATA, start);
+                if (eventPublisher != null) {
+                    eventPublisher.thumbnailsCreated(getStorageType(), message.getKey(), renditionKeys.values());
+                }
 
                 log.info("Successfully processed image: {}", message.getKey());
 
                 // Mark processing as successful
                 processingSuccess = true;
-            } else {
-                log.debug("Skipping message with storage type: {} (we handle {})",
-                    message.getStorageType(), getStorageType());
-                // This is not an error, just not for this service, so we can acknowledge
-                processingSuccess = true;
             }
         } catch (Exception e) {
             log.error("Failed to process image: " + message.getKey(), e);
         } finally {
-            try {
-                // Cleanup temporary files
-                if (originalFile != null) {
-                    Files.deleteIfExists(originalFile);
-                }
-                if (thumbnailFile != null) {
-                    Files.deleteIfExists(thumbnailFile);
+            // Cleanup temporary files
+            if (tempDir != null) {
+                try {
+                    deleteTempDirectory(tempDir);
+                } catch (IOException e) {
+                    log.warn("Could not delete temporary directory {}", tempDir, e);
                 }
-                if (tempDir != null) {
-                    Files.deleteIfExists(tempDir);
-                }
-
-                if (processingSuccess) {
-                    // Acknowledge the message if processing was successful
-                    channel.basicAck(deliveryTag, false);
-                    log.debug("Message acknowledged for: {}", message.getKey());
-                } else {
-                    // Reject the message with requeue=false to trigger dead letter exchange
-                    // This will route the message to the retry queue with delay
-                    channel.basicNack(deliveryTag, false, false);
-                    log.debug("Message rejected and sent to dead letter exchange for delayed retry: {}", message.getKey());
-                }
-            } catch (IOException e) {
-                log.error("Error handling RabbitMQ acknowledgment for: {}", message.getKey(), e);
+            }
+            if (trace != null && metrics != null) {
+                metrics.publish(trace, getStorageType(),
+                        StorageUtil.getExtension(message.getKey()).replace(".", ""), processingSuccess);
             }
         }
+        return processingSuccess;
     }
     
     protected abstract String generateUrl(String key);
 
-    protected void generateThumbnail(Path input, Path output) throws IOException {
-        log.info("Generating thumbnail for: {}", input);
+    /**
+     * Decodes the image once and derives every requested rendition from it, largest first.
+     * Each rendition is scaled from the previous (unsharpened) one, so the intermediate images
+     * of the progressive scaling act as a mip chain instead of re-scaling the source per size.
+     * The last rendition is not scaled any further, so it is scaled and sharpened in one call.
+     * Returns the sharpened renditions keyed by size, or null when the stream cannot be decoded.
+     */
+    protected Map<Integer, BufferedImage> generateThumbnails(ImageInputStream input, List<Integer> sizes) throws IOException {
+        return generateThumbnails(input, sizes, new ProcessingTrace());
+    }
 
-        // Read the original image
-        BufferedImage originalImage = ImageIO.read(input.toFile());
+    protected Map<Integer, BufferedImage> generateThumbnails(ImageInputStream input, List<Integer> sizes,
+                                                             ProcessingTrace trace) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage originalImage = readImage(input, sizes.get(0), trace);
+        trace.record(ProcessingTrace.Stage.DECODE, start);
         if (originalImage == null) {
-            throw new IOException("Could not read image file: " + input);
+            return null;
         }
 
         int originalWidth = originalImage.getWidth();
         int originalHeight = originalImage.getHeight();
-
-        // Calculate thumbnail dimensions while preserving aspect ratio
-        // Increased size significantly for better clarity (600px max dimension)
-        int maxDimension = 600;
-        int thumbnailWidth, thumbnailHeight;
-        
         double aspectRatio = (double) originalWidth / originalHeight;
 
-        if (originalWidth > originalHeight) {
-            thumbnailWidth = maxDimension;
-            thumbnailHeight = (int) (maxDimension / aspectRatio);
-        } else {
-            thumbnailHeight = maxDimension;
-            thumbnailWidth = (int) (maxDimension * aspectRatio);
-        }
+        Map<Integer, BufferedImage> renditions = new LinkedHashMap<>();
+        BufferedImage current = originalImage;
+        for (int i = 0; i < sizes.size(); i++) {
+            int maxDimension = sizes.get(i);
+            // Calculate thumbnail dimensions while preserving aspect ratio
+            int thumbnailWidth, thumbnailHeight;
+            if (originalWidth > originalHeight) {
+                thumbnailWidth = maxDimension;
+                thumbnailHeight = Math.max(1, (int) (maxDimension / aspectRatio));
+            } else {
+                thumbnailHeight = maxDimension;
+                thumbnailWidth = Math.max(1, (int) (maxDimension * aspectRatio));
+            }
 
-        // Multi-step scaling for higher quality
-        // This progressive scaling produces better results than single-step scaling
-        BufferedImage resultImage = progressiveScaling(originalImage, thumbnailWidth, thumbnailHeight);
+            if (i == sizes.size() - 1) {
+                // Nothing is derived from the last rendition, so engines may fuse both steps
+                start = System.nanoTime();
+                renditions.put(maxDimension, resamplingEngine.scaleAndSharpen(current, thumbnailWidth, thumbnailHeight));
+                trace.record(ProcessingTrace.Stage.SCALE, start);
+                continue;
+            }
 
-        // Sharpen the image to enhance details
-        resultImage = sharpenImage(resultImage);
+            // Multi-step scaling for higher quality
+            start = System.nanoTime();
+            current = resamplingEngine.scale(current, thumbnailWidth, thumbnailHeight);
+            trace.record(ProcessingTrace.Stage.SCALE, start);
 
-        // Determine the output format based on the file extension
-        String extension = StorageUtil.getExtension(output.toString());
-        if (extension.startsWith(".")) {
-            extension = extension.substring(1);
-        }
-        if (extension.isEmpty()) {
-            extension = "jpg"; // Default to jpg if no extension found
+            // Sharpen the image to enhance details
+            start = System.nanoTime();
+            renditions.put(maxDimension, resamplingEngine.sharpen(current));
+            trace.record(ProcessingTrace.Stage.SHARPEN, start);
         }
+        return renditions;
+    }
 
-        // Write the thumbnail with optimized settings for different formats
-        if (extension.equalsIgnoreCase("jpg") || extension.equalsIgnoreCase("jpeg")) {
-            // For JPEG, we need to set compression quality
-            javax.imageio.ImageWriter jpgWriter = javax.imageio.ImageIO.getImageWritersByFormatName("jpg").next();
-            javax.imageio.ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
-            jpgWriteParam.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-            // Higher compression quality (0.95 for maximum clarity)
-            jpgWriteParam.setCompressionQuality(0.95f);
-            
-            javax.imageio.IIOImage outputImage = new javax.imageio.IIOImage(resultImage, null, null);
-            javax.imageio.stream.ImageOutputStream outputStream = 
-                javax.imageio.ImageIO.createImageOutputStream(output.toFile());
-            jpgWriter.setOutput(outputStream);
-            jpgWriter.write(null, outputImage, jpgWriteParam);
-            jpgWriter.dispose();
-            outputStream.close();
-        } else {
-            // For PNG, use compression level 0 (no compression) for best quality
-            javax.imageio.ImageWriteParam pngWriteParam = null;
-            if (extension.equalsIgnoreCase("png")) {
-                javax.imageio.ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
-                pngWriteParam = pngWriter.getDefaultWriteParam();
-                if (pngWriteParam.canWriteCompressed()) {
-                    pngWriteParam.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-                    pngWriteParam.setCompressionType("Deflate");
-                    pngWriteParam.setCompressionQuality(0.0f); // 0 = best quality for PNG
-                    
-                    javax.imageio.IIOImage outputImage = new javax.imageio.IIOImage(resultImage, null, null);
-                    javax.imageio.stream.ImageOutputStream outputStream = 
-                        javax.imageio.ImageIO.createImageOutputStream(output.toFile());
-                    pngWriter.setOutput(outputStream);
-                    pngWriter.write(null, outputImage, pngWriteParam);
-                    pngWriter.dispose();
-                    outputStream.close();
-                } else {
-                    ImageIO.write(resultImage, extension, output.toFile());
+    /**
+     * Encodes the image into memory with the settings for the format implied by the extension.
+     */
+    protected byte[] encodeImage(BufferedImage image, String extension) throws IOException {
+        return ImageEncoder.encode(image, extension);
+    }
+
+    private Map<Integer, String> uploadRenditions(ImageProcessingMessage message,
+                                                  Map<Integer, BufferedImage> renditions,
+                                                  Path tempDir,
+                                                  ProcessingTrace trace) throws Exception {
+        String extension = StorageUtil.getExtension(message.getKey());
+        Map<Integer, String> renditionKeys = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+
+        for (Map.Entry<Integer, BufferedImage> rendition : renditions.entrySet()) {
+            int size = rendition.getKey();
+            String key = size == thumbnailSize
+                    ? StorageUtil.getThumbnailKey(message.getKey())
+                    : StorageUtil.getRenditionKey(message.getKey(), size);
+            renditionKeys.put(size, key);
+
+            uploads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    long start = System.nanoTime();
+                    if (tempDir == null) {
+                        byte[] encoded = encodeImage(rendition.getValue(), extension);
+                        trace.record(ProcessingTrace.Stage.ENCODE, start);
+                        trace.addBytesOut(encoded.length);
+
+                        start = System.nanoTime();
+                        uploadThumbnail(encoded, key, message.getContentType());
+                        trace.record(ProcessingTrace.Stage.UPLOAD, start);
+                    } else {
+                        Path thumbnailFile = tempDir.resolve("thumbnail-" + size + extension);
+                        try (ImageOutputStream outputStream = ImageIO.createImageOutputStream(thumbnailFile.toFile())) {
+                            ImageEncoder.write(rendition.getValue(), extension, outputStream);
+                        }
+                        trace.record(ProcessingTrace.Stage.ENCODE, start);
+                        trace.addBytesOut(Files.size(thumbnailFile));
+
+                        start = System.nanoTime();
+                        uploadThumbnail(thumbnailFile, key, message.getContentType());
+                        trace.record(ProcessingTrace.Stage.UPLOAD, start);
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
                 }
-            } else {
-                // For other formats, use regular write method
-                ImageIO.write(resultImage, extension, output.toFile());
-            }
+            }, renditionExecutor));
         }
 
-        log.info("Successfully generated thumbnail: {}", output);
+        try {
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return renditionKeys;
     }
-    
+
     /**
-     * Performs progressive scaling of the image for better quality.
-     * This method gradually scales down the image in multiple steps rather than all at once.
+     * Whether this source version was already processed and its thumbnail is still in storage
      */
-    private BufferedImage progressiveScaling(BufferedImage source, int targetWidth, int targetHeight) {
-        // Current dimensions
-        int currentWidth = source.getWidth();
-        int currentHeight = source.getHeight();
-        
-        // Don't scale up images that are already smaller than target size
-        if (currentWidth <= targetWidth && currentHeight <= targetHeight) {
-            return source;
-        }
-        
-        // Use a multi-step approach for higher quality
-        BufferedImage result = source;
-        
-        // Scale down in multiple steps for better quality (not more than 50% each step)
-        while (currentWidth > targetWidth * 1.5 || currentHeight > targetHeight * 1.5) {
-            int newWidth = Math.max(currentWidth / 2, targetWidth);
-            int newHeight = Math.max(currentHeight / 2, targetHeight);
-            
-            result = scaleImage(result, newWidth, newHeight);
-            
-            currentWidth = newWidth;
-            currentHeight = newHeight;
-        }
-        
-        // Final scaling to exact target dimensions
-        if (currentWidth != targetWidth || currentHeight != targetHeight) {
-            result = scaleImage(result, targetWidth, targetHeight);
-        }
-        
-        return result;
+    private boolean isAlreadyProcessed(String key, SourceVersion source) throws Exception {
+        Optional<String> thumbnailKey = ledger.findThumbnailKey(getStorageType(), key, source);
+        return thumbnailKey.isPresent() && thumbnailExists(thumbnailKey.get());
     }
-    
+
     /**
-     * Scale an image to specific dimensions using high quality settings.
+     * Distinct rendition sizes for the message, largest first
      */
-    private BufferedImage scaleImage(BufferedImage source, int width, int height) {
-        // Create a new BufferedImage for the result
-        BufferedImage result;
-        
-        // Preserve transparency for images with alpha channel
-        if (source.getTransparency() != BufferedImage.OPAQUE) {
-            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        } else {
-            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    private List<Integer> renditionSizes(ImageProcessingMessage message) {
+        List<Integer> requested = message.getRenditions() == null || message.getRenditions().isEmpty()
+                ? defaultRenditions
+                : message.getRenditions();
+        List<Integer> sizes = requested.stream()
+                .filter(size -> size != null && size > 0)
+                .distinct()
+                .sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("No valid rendition sizes requested: " + requested);
         }
-        
-        // Set up the rendering process with maximum quality settings
-        Graphics2D g2d = result.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        
-        // Draw the scaled image
-        g2d.drawImage(source, 0, 0, width, height, null);
-        g2d.dispose();
-        
-        return result;
+        return sizes;
     }
-    
+
     /**
-     * Apply a sharpening filter to enhance image clarity
+     * The generated size closest to the configured thumbnail size
      */
-    private BufferedImage sharpenImage(BufferedImage image) {
-        float[] sharpenMatrix = {
-            0, -0.2f, 0,
-            -0.2f, 1.8f, -0.2f,
-            0, -0.2f, 0
-        };
-        
-        java.awt.image.Kernel kernel = new java.awt.image.Kernel(3, 3, sharpenMatrix);
-        java.awt.image.ConvolveOp convolveOp = new java.awt.image.ConvolveOp(
-            kernel, java.awt.image.ConvolveOp.EDGE_NO_OP, null);
-        
-        // Create a compatible destination image to avoid potential issues with some image types
-        BufferedImage output;
-        if (image.getTransparency() != BufferedImage.OPAQUE) {
-            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        } else {
-            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB); 
+    private int closestSize(Collection<Integer> sizes) {
+        return sizes.stream()
+                .min(Comparator.comparingInt(size -> Math.abs(size - thumbnailSize)))
+                .orElse(thumbnailSize);
+    }
+
+    private void deleteTempDirectory(Path tempDir) throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
         }
-        
-        // Apply the filter
-        return convolveOp.filter(image, output);
+        Files.deleteIfExists(tempDir);
+    }
+
+    /**
+     * Decodes an image at no more resolution than the thumbnail needs, see {@link ImageDecoder}.
+     * Returns null when no reader can decode the stream.
+     */
+    protected BufferedImage readImage(ImageInputStream input, int maxDimension) throws IOException {
+        return readImage(input, maxDimension, new ProcessingTrace());
+    }
+
+    private BufferedImage readImage(ImageInputStream input, int maxDimension, ProcessingTrace trace) throws IOException {
+        return new ImageDecoder(maxAspectRatio).read(input, maxDimension, trace::setSourcePixels);
     }
 }
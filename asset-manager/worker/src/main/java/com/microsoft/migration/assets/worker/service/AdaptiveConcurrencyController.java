@@ -0,0 +1,172 @@
+package com.microsoft.migration.assets.worker.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tunes the number of image-processing consumers at runtime.
+ * Each listener invocation is timed through the container advice chain. On every adjustment
+ * interval the controller compares the window's average latency, process CPU load and heap
+ * headroom against their limits: under pressure it halves the consumers, otherwise it adds
+ * one (AIMD), always staying within the configured floor and ceiling.
+ * Prefetch stays fixed, a running consumer keeps the prefetch it was started with.
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyController implements MethodInterceptor {
+
+    private final RabbitListenerEndpointRegistry registry;
+
+    @Value("${image.processing.concurrency.adaptive:true}")
+    private boolean adaptive;
+
+    @Value("${image.processing.concurrency.min:1}")
+    private int minConsumers;
+
+    /**
+     * Consumer ceiling, defaults to the number of available processors
+     */
+    @Value("${image.processing.concurrency.max:0}")
+    private int maxConsumers;
+
+    @Value("${image.processing.prefetch:10}")
+    private int prefetch = 10;
+
+    @Value("${image.processing.concurrency.target-latency-ms:2000}")
+    private long targetLatencyMs;
+
+    @Value("${image.processing.concurrency.max-cpu:0.85}")
+    private double maxCpu;
+
+    @Value("${image.processing.concurrency.min-heap-headroom:0.2}")
+    private double minHeapHeadroom;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+
+    private volatile int consumers;
+
+    public AdaptiveConcurrencyController(@Lazy RabbitListenerEndpointRegistry registry, MeterRegistry meterRegistry) {
+        this.registry = registry;
+        Gauge.builder("image.processing.consumers", this, AdaptiveConcurrencyController::getConsumers)
+                .description("Concurrent image-processing consumers chosen by the controller")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (maxConsumers <= 0) {
+            maxConsumers = Runtime.getRuntime().availableProcessors();
+        }
+        maxConsumers = Math.max(maxConsumers, minConsumers);
+        consumers = minConsumers;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * Prefetch the containers are created with
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            processingNanos.add(System.nanoTime() - start);
+            // Batch listeners receive the whole batch as the data argument
+            Object[] arguments = invocation.getArguments();
+            Object data = arguments.length > 1 ? arguments[1] : null;
+            processed.add(data instanceof List ? Math.max(1, ((List<?>) data).size()) : 1);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${image.processing.concurrency.adjust-interval-ms:10000}")
+    public void adjust() {
+        long count = processed.sumThenReset();
+        long nanos = processingNanos.sumThenReset();
+        if (!adaptive) {
+            return;
+        }
+        if (count == 0) {
+            // Nothing measured in this window, keep the current settings
+            return;
+        }
+
+        long averageLatencyMs = TimeUnit.NANOSECONDS.toMillis(nanos / count);
+        double cpuLoad = processCpuLoad();
+        double heapHeadroom = heapHeadroom();
+        boolean pressure = averageLatencyMs > targetLatencyMs || cpuLoad > maxCpu || heapHeadroom < minHeapHeadroom;
+
+        int newConsumers = next(consumers, pressure, minConsumers, maxConsumers);
+        if (newConsumers == consumers) {
+            return;
+        }
+
+        log.info("Adjusting consumers {} -> {} (latency {} ms, cpu {}, heap headroom {})",
+                consumers, newConsumers, averageLatencyMs,
+                String.format("%.2f", cpuLoad), String.format("%.2f", heapHeadroom));
+        consumers = newConsumers;
+
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            if (container instanceof SimpleMessageListenerContainer) {
+                // Starts or stops consumers right away
+                ((SimpleMessageListenerContainer) container).setConcurrentConsumers(newConsumers);
+            }
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease, clamped to [floor, ceiling]
+     */
+    static int next(int current, boolean pressure, int floor, int ceiling) {
+        int next = pressure ? current / 2 : current + 1;
+        return Math.max(floor, Math.min(ceiling, next));
+    }
+
+    private double processCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double loadAverage = os.getSystemLoadAverage();
+        return loadAverage < 0 ? 0 : loadAverage / os.getAvailableProcessors();
+    }
+
+    private double heapHeadroom() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        return 1.0 - (double) heap.getUsed() / max;
+    }
+}
@@ -1,9 +1,18 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.worker.model.SourceVersion;
+
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Map;
 
 public interface FileProcessor {
+    SourceVersion describeOriginal(String key) throws Exception;
+    boolean thumbnailExists(String key) throws Exception;
     void downloadOriginal(String key, Path destination) throws Exception;
     void uploadThumbnail(Path source, String key, String contentType) throws Exception;
+    InputStream openOriginal(String key) throws Exception;
+    void uploadThumbnail(byte[] data, String key, String contentType) throws Exception;
+    void recordRenditions(String originalKey, Map<Integer, String> renditionKeys, String thumbnailKey) throws Exception;
     String getStorageType();
-}
\ No newline at end of file
+}
@@ -1,13 +1,17 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.worker.model.SourceVersion;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +37,19 @@ public class LocalFileProcessingService extends AbstractFileProcessingService {
         }
     }
 
+    @Override
+    public SourceVersion describeOriginal(String key) throws Exception {
+        Path sourcePath = rootLocation.resolve(key);
+        BasicFileAttributes attributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+        // Local files have no ETag, the modification time identifies the version instead
+        return new SourceVersion(Long.toHexString(attributes.lastModifiedTime().toMillis()), attributes.size());
+    }
+
+    @Override
+    public boolean thumbnailExists(String key) {
+        return Files.exists(rootLocation.resolve(key));
+    }
+
     @Override
     public void downloadOriginal(String key, Path destination) throws Exception {
         Path sourcePath = rootLocation.resolve(key);
@@ -49,6 +66,28 @@ public class LocalFileProcessingService extends AbstractFileProcessingService {
         Files.copy(source, destinationPath, StandardCopyOption.REPLACE_EXISTING);
     }
 
+    @Override
+    public InputStream openOriginal(String key) throws Exception {
+        Path sourcePath = rootLocation.resolve(key);
+        if (!Files.exists(sourcePath)) {
+            throw new java.io.FileNotFoundException("File not found: " + sourcePath);
+        }
+        return Files.newInputStream(sourcePath);
+    }
+
+    @Override
+    public void uploadThumbnail(byte[] data, String key, String contentType) throws Exception {
+        Path destinationPath = rootLocation.resolve(key);
+        Files.createDirectories(destinationPath.getParent());
+        Files.write(destinationPath, data);
+    }
+
+    @Override
+    public void recordRenditions(String originalKey, Map<Integer, String> renditionKeys, String thumbnailKey) {
+        // Local storage keeps no metadata records, renditions are found by key convention
+        logger.debug("Stored {} renditions for {}", renditionKeys.size(), originalKey);
+    }
+
     @Override
     public String getStorageType() {
         return "local";
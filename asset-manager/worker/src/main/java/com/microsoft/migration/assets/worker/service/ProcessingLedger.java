@@ -0,0 +1,46 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.ProcessedImage;
+import com.microsoft.migration.assets.worker.model.SourceVersion;
+import com.microsoft.migration.assets.worker.repository.ProcessedImageRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Records which source version each original was last processed from, so a redelivered
+ * message for an unchanged original can be acknowledged without regenerating its thumbnails.
+ */
+@Component
+@ConditionalOnProperty(name = "image.processing.idempotency.enabled", matchIfMissing = true)
+@RequiredArgsConstructor
+public class ProcessingLedger {
+    private final ProcessedImageRepository processedImageRepository;
+
+    /**
+     * The thumbnail key recorded for this exact source version, if it was already processed
+     */
+    public Optional<String> findThumbnailKey(String storageType, String key, SourceVersion source) {
+        return processedImageRepository.findById(ledgerId(storageType, key))
+                .filter(entry -> source.getETag() != null && source.getETag().equals(entry.getSourceETag()))
+                .filter(entry -> entry.getSourceSize() != null && entry.getSourceSize() == source.getSize())
+                .map(ProcessedImage::getThumbnailKey);
+    }
+
+    public void record(String storageType, String key, SourceVersion source, String thumbnailKey) {
+        ProcessedImage entry = new ProcessedImage();
+        entry.setId(ledgerId(storageType, key));
+        entry.setStorageType(storageType);
+        entry.setSourceKey(key);
+        entry.setSourceETag(source.getETag());
+        entry.setSourceSize(source.getSize());
+        entry.setThumbnailKey(thumbnailKey);
+        processedImageRepository.save(entry);
+    }
+
+    private String ledgerId(String storageType, String key) {
+        return storageType + ":" + key;
+    }
+}
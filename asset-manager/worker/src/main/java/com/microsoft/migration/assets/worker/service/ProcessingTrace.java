@@ -0,0 +1,55 @@
+package com.microsoft.migration.assets.worker.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each stage of the thumbnail pipeline for one message.
+ * Stages may be recorded from several threads, e.g. when renditions are uploaded in parallel.
+ */
+public class ProcessingTrace {
+
+    public enum Stage {
+        DOWNLOAD, DECODE, SCALE, SHARPEN, ENCODE, UPLOAD, METADATA
+    }
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private final LongAdder bytesOut = new LongAdder();
+    private volatile long bytesIn = -1;
+    private volatile long sourcePixels = -1;
+
+    public void record(Stage stage, long startNanos) {
+        stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - startNanos);
+    }
+
+    public long getNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public void setBytesIn(long bytesIn) {
+        this.bytesIn = bytesIn;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Pixel count of the full-resolution source as reported by its header
+     */
+    public void setSourcePixels(long sourcePixels) {
+        this.sourcePixels = sourcePixels;
+    }
+
+    public long getSourcePixels() {
+        return sourcePixels;
+    }
+}
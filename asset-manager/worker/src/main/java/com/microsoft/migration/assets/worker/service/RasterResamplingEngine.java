@@ -0,0 +1,602 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.imaging.ResamplingEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput-oriented engine working directly on the pixel arrays of the decoded image.
+ * Reductions of 2x or more first average integer blocks of source pixels (each source pixel is
+ * read once), then every output row is produced by a separable Catmull-Rom filter (vertical pass
+ * into a row of accumulators, then horizontal pass) without further intermediate images. When
+ * sharpening, the kernel is applied to a rolling window of three resized rows, which fuses it
+ * into the resize. Output rows are split into bands that run in parallel, and every thread
+ * reuses its own scratch rows, so the only per-call allocations are the result image and the
+ * filter weights.
+ */
+@Component
+@ConditionalOnProperty(name = "image.processing.resampling.engine", havingValue = "raster")
+public class RasterResamplingEngine implements ResamplingEngine {
+
+    /**
+     * Smallest band worth handing to another thread
+     */
+    private static final int MIN_ROWS_PER_BAND = 64;
+
+    private static final float SHARPEN_CENTER = 1.8f;
+    private static final float SHARPEN_NEIGHBOUR = -0.2f;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public RasterResamplingEngine(@Value("${image.processing.resampling.threads:0}") int threads) {
+        this.parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("resample-");
+        threadFactory.setDaemon(true);
+        this.executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism - 1, threadFactory) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public BufferedImage scale(BufferedImage source, int width, int height) {
+        if (source.getWidth() <= width && source.getHeight() <= height) {
+            return source;
+        }
+        return resample(source, width, height, false);
+    }
+
+    @Override
+    public BufferedImage sharpen(BufferedImage image) {
+        Pixels pixels = Pixels.of(image);
+        BufferedImage result = newImage(image.getWidth(), image.getHeight(), pixels.alpha);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        runBands(image.getHeight(), (from, to) -> filterRows(pixels::readRow, out, image.getWidth(),
+                image.getHeight(), from, to, true));
+        return result;
+    }
+
+    @Override
+    public BufferedImage scaleAndSharpen(BufferedImage source, int width, int height) {
+        if (source.getWidth() <= width && source.getHeight() <= height) {
+            return sharpen(source);
+        }
+        return resample(source, width, height, true);
+    }
+
+    private BufferedImage resample(BufferedImage source, int width, int height, boolean sharpen) {
+        Pixels pixels = reduce(Pixels.of(source),
+                boxFactor(source.getWidth(), width), boxFactor(source.getHeight(), height));
+        Weights horizontal = Weights.of(pixels.width, width);
+        Weights vertical = Weights.of(pixels.height, height);
+
+        BufferedImage result = newImage(width, height, pixels.alpha);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        runBands(height, (from, to) -> {
+            float[] column = SCRATCH.get().column(pixels.width * 4);
+            filterRows((y, row) -> {
+                pixels.accumulateRows(vertical, y, column);
+                horizontal.apply(column, row, pixels.alpha);
+            }, out, width, height, from, to, sharpen);
+        });
+        return result;
+    }
+
+    /**
+     * Block size of the box pre-reduction, leaving less than a 2x reduction to the cubic filter
+     */
+    static int boxFactor(int sourceSize, int targetSize) {
+        return Math.max(1, sourceSize / targetSize);
+    }
+
+    /**
+     * Averages blocks of factorX x factorY source pixels (alpha-weighted) into the calling
+     * thread's reduction buffer, partial blocks at the right and bottom edges included
+     */
+    private Pixels reduce(Pixels pixels, int factorX, int factorY) {
+        if (factorX == 1 && factorY == 1) {
+            return pixels;
+        }
+        int reducedWidth = (pixels.width + factorX - 1) / factorX;
+        int reducedHeight = (pixels.height + factorY - 1) / factorY;
+        int[] reduced = SCRATCH.get().reduced(reducedWidth * reducedHeight);
+
+        runBands(reducedHeight, (from, to) -> {
+            // Column sums first: long, branch-free loops over each source row
+            int[] sums = SCRATCH.get().sums(pixels.width * 4);
+            for (int y = from; y < to; y++) {
+                Arrays.fill(sums, 0, pixels.width * 4, 0);
+                int firstRow = y * factorY;
+                int lastRow = Math.min(pixels.height, firstRow + factorY);
+                for (int sourceRow = firstRow; sourceRow < lastRow; sourceRow++) {
+                    pixels.addRow(sourceRow, sums);
+                }
+                int rows = lastRow - firstRow;
+                for (int x = 0; x < reducedWidth; x++) {
+                    int first = x * factorX;
+                    int last = Math.min(pixels.width, first + factorX);
+                    long r = 0, g = 0, b = 0, a = 0;
+                    for (int i = first * 4; i < last * 4; i += 4) {
+                        r += sums[i];
+                        g += sums[i + 1];
+                        b += sums[i + 2];
+                        a += sums[i + 3];
+                    }
+                    long count = (long) (last - first) * rows;
+                    // Colour sums are alpha-weighted, so dividing by the alpha sum undoes the premultiplication
+                    long divisor = pixels.alpha ? Math.max(1, a) : count;
+                    reduced[y * reducedWidth + x] = (int) ((a + count / 2) / count) << 24
+                            | (int) ((r + divisor / 2) / divisor) << 16
+                            | (int) ((g + divisor / 2) / divisor) << 8
+                            | (int) ((b + divisor / 2) / divisor);
+                }
+            }
+        });
+        return new Pixels(reducedWidth, reducedHeight, pixels.alpha, reduced, null, 0, reducedWidth, 1, null);
+    }
+
+    /**
+     * Produces output rows [from, to). Without sharpening each produced row is packed as is;
+     * with sharpening a window of the previous, current and next row is kept so the
+     * cross-shaped kernel runs as soon as the row below is available. The outermost rows and
+     * columns are left unfiltered, like ConvolveOp.EDGE_NO_OP.
+     */
+    private void filterRows(RowSource rows, int[] out, int width, int height, int from, int to, boolean sharpen) {
+        Scratch scratch = SCRATCH.get();
+        if (!sharpen) {
+            float[] row = scratch.row(0, width * 4);
+            for (int y = from; y < to; y++) {
+                rows.produce(y, row);
+                pack(row, out, y * width, width);
+            }
+            return;
+        }
+
+        float[] up = scratch.row(0, width * 4);
+        float[] current = scratch.row(1, width * 4);
+        float[] down = scratch.row(2, width * 4);
+        if (from > 0) {
+            rows.produce(from - 1, up);
+        }
+        rows.produce(from, current);
+        for (int y = from; y < to; y++) {
+            boolean edge = y == 0 || y == height - 1;
+            if (y < height - 1) {
+                rows.produce(y + 1, down);
+            }
+            if (edge) {
+                pack(current, out, y * width, width);
+            } else {
+                sharpenRow(up, current, down, out, y * width, width);
+            }
+            float[] recycled = up;
+            up = current;
+            current = down;
+            down = recycled;
+        }
+    }
+
+    private static void sharpenRow(float[] up, float[] current, float[] down, int[] out, int offset, int width) {
+        pack(current, out, offset, 1);
+        for (int x = 1; x < width - 1; x++) {
+            int i = x * 4;
+            float r = SHARPEN_CENTER * current[i]
+                    + SHARPEN_NEIGHBOUR * (current[i - 4] + current[i + 4] + up[i] + down[i]);
+            float g = SHARPEN_CENTER * current[i + 1]
+                    + SHARPEN_NEIGHBOUR * (current[i - 3] + current[i + 5] + up[i + 1] + down[i + 1]);
+            float b = SHARPEN_CENTER * current[i + 2]
+                    + SHARPEN_NEIGHBOUR * (current[i - 2] + current[i + 6] + up[i + 2] + down[i + 2]);
+            out[offset + x] = argb(current[i + 3], r, g, b);
+        }
+        if (width > 1) {
+            out[offset + width - 1] = argb(current[(width - 1) * 4 + 3], current[(width - 1) * 4],
+                    current[(width - 1) * 4 + 1], current[(width - 1) * 4 + 2]);
+        }
+    }
+
+    private static void pack(float[] row, int[] out, int offset, int width) {
+        for (int x = 0; x < width; x++) {
+            int i = x * 4;
+            out[offset + x] = argb(row[i + 3], row[i], row[i + 1], row[i + 2]);
+        }
+    }
+
+    private static int argb(float a, float r, float g, float b) {
+        return clamp(a) << 24 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int clamp(float value) {
+        return value <= 0 ? 0 : value >= 255 ? 255 : (int) (value + 0.5f);
+    }
+
+    private static BufferedImage newImage(int width, int height, boolean alpha) {
+        return new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Splits the rows into bands, runs all but the first on the pool and the first on the caller
+     */
+    private void runBands(int rows, Band band) {
+        int bands = Math.max(1, Math.min(parallelism, rows / MIN_ROWS_PER_BAND));
+        if (bands == 1 || executor == null) {
+            band.run(0, rows);
+            return;
+        }
+
+        int rowsPerBand = (rows + bands - 1) / bands;
+        List<Future<?>> futures = new ArrayList<>(bands - 1);
+        for (int from = rowsPerBand; from < rows; from += rowsPerBand) {
+            int start = from;
+            int end = Math.min(rows, from + rowsPerBand);
+            futures.add(executor.submit(() -> band.run(start, end)));
+        }
+        band.run(0, Math.min(rows, rowsPerBand));
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while resampling", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Resampling failed", e.getCause());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Band {
+        void run(int from, int to);
+    }
+
+    /**
+     * Writes one row of r, g, b, a floats (not premultiplied) for the given output row
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        void produce(int y, float[] row);
+    }
+
+    /**
+     * Per-thread rows reused across calls, grown on demand
+     */
+    private static final class Scratch {
+        private float[] column = new float[0];
+        private final float[][] rows = {new float[0], new float[0], new float[0]};
+        private int[] sums = new int[0];
+        private int[] reduced = new int[0];
+
+        int[] sums(int length) {
+            if (sums.length < length) {
+                sums = new int[length];
+            }
+            return sums;
+        }
+
+        int[] reduced(int length) {
+            if (reduced.length < length) {
+                reduced = new int[length];
+            }
+            return reduced;
+        }
+
+        float[] column(int length) {
+            if (column.length < length) {
+                column = new float[length];
+            }
+            return column;
+        }
+
+        float[] row(int index, int length) {
+            if (rows[index].length < length) {
+                rows[index] = new float[length];
+            }
+            return rows[index];
+        }
+    }
+
+    /**
+     * Normalized Catmull-Rom contributions of source samples to each destination sample
+     */
+    static final class Weights {
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+        final int taps;
+
+        private Weights(int[] start, int[] count, float[] weights, int taps) {
+            this.start = start;
+            this.count = count;
+            this.weights = weights;
+            this.taps = taps;
+        }
+
+        static Weights of(int sourceSize, int targetSize) {
+            double scale = (double) sourceSize / targetSize;
+            double filterScale = Math.max(1.0, scale);
+            double support = 2.0 * filterScale;
+            int taps = (int) Math.ceil(support * 2) + 2;
+
+            int[] start = new int[targetSize];
+            int[] count = new int[targetSize];
+            float[] weights = new float[targetSize * taps];
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(sourceSize, (int) Math.ceil(center + support));
+                double sum = 0;
+                for (int j = left; j < right; j++) {
+                    double weight = catmullRom((j + 0.5 - center) / filterScale);
+                    weights[i * taps + j - left] = (float) weight;
+                    sum += weight;
+                }
+                for (int j = 0; j < right - left && sum != 0; j++) {
+                    weights[i * taps + j] /= (float) sum;
+                }
+                start[i] = left;
+                count[i] = right - left;
+            }
+            return new Weights(start, count, weights, taps);
+        }
+
+        private static double catmullRom(double x) {
+            x = Math.abs(x);
+            if (x < 1) {
+                return 1.5 * x * x * x - 2.5 * x * x + 1;
+            }
+            if (x < 2) {
+                return -0.5 * x * x * x + 2.5 * x * x - 4 * x + 2;
+            }
+            return 0;
+        }
+
+        /**
+         * Filters a row of r, g, b, a accumulators (alpha-premultiplied) into the destination row,
+         * undoing the premultiplication
+         */
+        void apply(float[] column, float[] row, boolean alpha) {
+            for (int x = 0; x < start.length; x++) {
+                float r = 0, g = 0, b = 0, a = 0;
+                int base = x * taps;
+                int index = start[x] * 4;
+                for (int k = 0; k < count[x]; k++, index += 4) {
+                    float weight = weights[base + k];
+                    r += weight * column[index];
+                    g += weight * column[index + 1];
+                    b += weight * column[index + 2];
+                    a += weight * column[index + 3];
+                }
+                if (alpha && a > 0) {
+                    float unpremultiply = 255f / a;
+                    r *= unpremultiply;
+                    g *= unpremultiply;
+                    b *= unpremultiply;
+                }
+                // Clamp the cubic overshoot before any sharpening, as the 8-bit Java2D path does
+                int i = x * 4;
+                row[i] = Math.max(0f, Math.min(255f, r));
+                row[i + 1] = Math.max(0f, Math.min(255f, g));
+                row[i + 2] = Math.max(0f, Math.min(255f, b));
+                row[i + 3] = alpha ? Math.max(0f, Math.min(255f, a)) : 255;
+            }
+        }
+    }
+
+    /**
+     * Read-only view of the source pixels. Packed int and interleaved byte rasters are read
+     * in place, any other layout is converted to packed ARGB once.
+     */
+    static final class Pixels {
+        final int width;
+        final int height;
+        final boolean alpha;
+        private final int[] ints;
+        private final byte[] bytes;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+
+        private Pixels(int width, int height, boolean alpha, int[] ints, byte[] bytes, int offset, int scanlineStride,
+                       int pixelStride, int[] bandOffsets) {
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+            this.ints = ints;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.scanlineStride = scanlineStride;
+            this.pixelStride = pixelStride;
+            this.bandOffsets = bandOffsets;
+        }
+
+        static Pixels of(BufferedImage image) {
+            Raster raster = image.getRaster();
+            int type = image.getType();
+            int width = image.getWidth();
+            int height = image.getHeight();
+            boolean unshifted = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && unshifted
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                return new Pixels(width, height, type == BufferedImage.TYPE_INT_ARGB, buffer.getData(), null,
+                        buffer.getOffset(), sampleModel.getScanlineStride(), 1, null);
+            }
+            if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR) && unshifted
+                    && raster.getSampleModel() instanceof ComponentSampleModel) {
+                DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                return new Pixels(width, height, type == BufferedImage.TYPE_4BYTE_ABGR, null, buffer.getData(),
+                        buffer.getOffset(), sampleModel.getScanlineStride(), sampleModel.getPixelStride(),
+                        sampleModel.getBandOffsets());
+            }
+
+            boolean alpha = image.getColorModel().hasAlpha();
+            int[] converted = image.getRGB(0, 0, width, height, null, 0, width);
+            return new Pixels(width, height, alpha, converted, null, 0, width, 1, null);
+        }
+
+        /**
+         * Accumulates the vertically filtered, alpha-premultiplied source row for output row y
+         */
+        void accumulateRows(Weights vertical, int y, float[] column) {
+            Arrays.fill(column, 0, width * 4, 0f);
+            int base = y * vertical.taps;
+            for (int k = 0; k < vertical.count[y]; k++) {
+                float weight = vertical.weights[base + k];
+                int sourceRow = vertical.start[y] + k;
+                if (ints != null) {
+                    accumulateInts(sourceRow, weight, column);
+                } else {
+                    accumulateBytes(sourceRow, weight, column);
+                }
+            }
+        }
+
+        private void accumulateInts(int sourceRow, float weight, float[] column) {
+            int index = offset + sourceRow * scanlineStride;
+            if (alpha) {
+                float premultiplied = weight / 255f;
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int pixel = ints[index + x];
+                    float a = pixel >>> 24;
+                    float w = premultiplied * a;
+                    column[i] += w * ((pixel >> 16) & 0xff);
+                    column[i + 1] += w * ((pixel >> 8) & 0xff);
+                    column[i + 2] += w * (pixel & 0xff);
+                    column[i + 3] += weight * a;
+                }
+            } else {
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int pixel = ints[index + x];
+                    column[i] += weight * ((pixel >> 16) & 0xff);
+                    column[i + 1] += weight * ((pixel >> 8) & 0xff);
+                    column[i + 2] += weight * (pixel & 0xff);
+                }
+            }
+        }
+
+        private void accumulateBytes(int sourceRow, float weight, float[] column) {
+            int index = offset + sourceRow * scanlineStride;
+            int red = index + bandOffsets[0];
+            int green = index + bandOffsets[1];
+            int blue = index + bandOffsets[2];
+            if (alpha) {
+                float premultiplied = weight / 255f;
+                int alphaBand = index + bandOffsets[3];
+                for (int x = 0, i = 0, p = 0; x < width; x++, i += 4, p += pixelStride) {
+                    float a = bytes[alphaBand + p] & 0xff;
+                    float w = premultiplied * a;
+                    column[i] += w * (bytes[red + p] & 0xff);
+                    column[i + 1] += w * (bytes[green + p] & 0xff);
+                    column[i + 2] += w * (bytes[blue + p] & 0xff);
+                    column[i + 3] += weight * a;
+                }
+            } else {
+                for (int x = 0, i = 0, p = 0; x < width; x++, i += 4, p += pixelStride) {
+                    column[i] += weight * (bytes[red + p] & 0xff);
+                    column[i + 1] += weight * (bytes[green + p] & 0xff);
+                    column[i + 2] += weight * (bytes[blue + p] & 0xff);
+                }
+            }
+        }
+
+        /**
+         * Adds source row y to per-pixel sums of r, g, b (multiplied by alpha when the source has alpha) and a
+         */
+        void addRow(int y, int[] sums) {
+            int index = offset + y * scanlineStride;
+            if (ints != null && alpha) {
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int pixel = ints[index + x];
+                    int pixelAlpha = pixel >>> 24;
+                    sums[i] += ((pixel >> 16) & 0xff) * pixelAlpha;
+                    sums[i + 1] += ((pixel >> 8) & 0xff) * pixelAlpha;
+                    sums[i + 2] += (pixel & 0xff) * pixelAlpha;
+                    sums[i + 3] += pixelAlpha;
+                }
+            } else if (ints != null) {
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    int pixel = ints[index + x];
+                    sums[i] += (pixel >> 16) & 0xff;
+                    sums[i + 1] += (pixel >> 8) & 0xff;
+                    sums[i + 2] += pixel & 0xff;
+                    sums[i + 3] += 255;
+                }
+            } else if (alpha) {
+                int red = index + bandOffsets[0];
+                int green = index + bandOffsets[1];
+                int blue = index + bandOffsets[2];
+                int alphaBand = index + bandOffsets[3];
+                for (int x = 0, i = 0, p = 0; x < width; x++, i += 4, p += pixelStride) {
+                    int pixelAlpha = bytes[alphaBand + p] & 0xff;
+                    sums[i] += (bytes[red + p] & 0xff) * pixelAlpha;
+                    sums[i + 1] += (bytes[green + p] & 0xff) * pixelAlpha;
+                    sums[i + 2] += (bytes[blue + p] & 0xff) * pixelAlpha;
+                    sums[i + 3] += pixelAlpha;
+                }
+            } else {
+                int red = index + bandOffsets[0];
+                int green = index + bandOffsets[1];
+                int blue = index + bandOffsets[2];
+                for (int x = 0, i = 0, p = 0; x < width; x++, i += 4, p += pixelStride) {
+                    sums[i] += bytes[red + p] & 0xff;
+                    sums[i + 1] += bytes[green + p] & 0xff;
+                    sums[i + 2] += bytes[blue + p] & 0xff;
+                    sums[i + 3] += 255;
+                }
+            }
+        }
+
+        /**
+         * Copies source row y as r, g, b, a floats
+         */
+        void readRow(int y, float[] row) {
+            int index = offset + y * scanlineStride;
+            for (int x = 0, i = 0; x < width; x++, i += 4) {
+                if (ints != null) {
+                    int pixel = ints[index + x];
+                    row[i] = (pixel >> 16) & 0xff;
+                    row[i + 1] = (pixel >> 8) & 0xff;
+                    row[i + 2] = pixel & 0xff;
+                    row[i + 3] = alpha ? pixel >>> 24 : 255;
+                } else {
+                    int pixelIndex = index + x * pixelStride;
+                    row[i] = bytes[pixelIndex + bandOffsets[0]] & 0xff;
+                    row[i + 1] = bytes[pixelIndex + bandOffsets[1]] & 0xff;
+                    row[i + 2] = bytes[pixelIndex + bandOffsets[2]] & 0xff;
+                    row[i + 3] = alpha ? bytes[pixelIndex + bandOffsets[3]] & 0xff : 255;
+                }
+            }
+        }
+    }
+}
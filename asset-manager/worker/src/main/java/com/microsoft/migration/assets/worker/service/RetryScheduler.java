@@ -0,0 +1,149 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.ImageProcessingMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.IMAGE_PROCESSING_RETRY_EXCHANGE;
+
+/**
+ * Schedules failed messages for another attempt with exponential backoff.
+ * A failed message is republished to the retry headers exchange, where the tier queue for its
+ * delay holds it until the TTL dead-letters it back to the image-processing exchange under its
+ * original storage-type routing key. Waiting copies sit outside the hot queues, so poison
+ * images cannot crowd out healthy traffic. After max-attempts the message is not rescheduled
+ * and the caller rejects it into the parking-lot queue.
+ * Delayed copies are published mandatory on a confirmed channel, so the caller only settles
+ * the original once the broker has taken responsibility for the copy.
+ */
+@Slf4j
+@Component
+public class RetryScheduler {
+    /**
+     * Number of the attempt a delivery represents, absent on the first delivery
+     */
+    public static final String ATTEMPT_HEADER = "x-retry-attempt";
+
+    /**
+     * Delay in milliseconds, matched by the bindings of the retry tier queues
+     */
+    public static final String DELAY_HEADER = "x-retry-delay";
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final List<Long> delays;
+    private final long confirmTimeoutMs;
+
+    /**
+     * Message ids of delayed copies the broker returned as unroutable
+     */
+    private final Set<String> returned = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public RetryScheduler(ConnectionFactory connectionFactory,
+                          MessageConverter messageConverter,
+                          MeterRegistry meterRegistry,
+                          @Value("${image.processing.retry.max-attempts:5}") int maxAttempts,
+                          @Value("${image.processing.retry.initial-delay-ms:5000}") long initialDelayMs,
+                          @Value("${image.processing.retry.multiplier:4}") double multiplier,
+                          @Value("${image.processing.retry.max-delay-ms:600000}") long maxDelayMs,
+                          @Value("${image.processing.retry.confirm-timeout-ms:5000}") long confirmTimeoutMs) {
+        this(retryTemplate(connectionFactory, messageConverter), meterRegistry, maxAttempts, initialDelayMs,
+                multiplier, maxDelayMs, confirmTimeoutMs);
+    }
+
+    RetryScheduler(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry, int maxAttempts,
+                   long initialDelayMs, double multiplier, long maxDelayMs, long confirmTimeoutMs) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        // Returns arrive before the confirm of the same publish, so they are seen before the wait ends
+        rabbitTemplate.setMandatory(true);
+        rabbitTemplate.setReturnsCallback(message ->
+                returned.add(message.getMessage().getMessageProperties().getMessageId()));
+
+        List<Long> tierDelays = new ArrayList<>();
+        double delay = initialDelayMs;
+        for (int attempt = 1; attempt < this.maxAttempts; attempt++) {
+            tierDelays.add(Math.min(maxDelayMs, (long) delay));
+            delay *= multiplier;
+        }
+        this.delays = Collections.unmodifiableList(tierDelays);
+    }
+
+    /**
+     * Own template, so only retry publishes are mandatory and hold a returns callback
+     */
+    private static RabbitTemplate retryTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
+        RabbitTemplate template = new RabbitTemplate(connectionFactory);
+        template.setMessageConverter(messageConverter);
+        return template;
+    }
+
+    /**
+     * Delay before each retry, the first entry applies after the first failed attempt
+     */
+    public List<Long> getDelays() {
+        return delays;
+    }
+
+    /**
+     * Publishes a delayed copy of a message whose given attempt failed and waits for the broker
+     * to confirm it. Returns false when the attempts are exhausted and the message should be parked.
+     *
+     * @throws AmqpException when the copy was not confirmed or could not be routed, so the
+     *                       original must stay with the broker
+     */
+    public boolean scheduleRetry(ImageProcessingMessage message, int attempt) {
+        if (attempt >= maxAttempts) {
+            log.warn("Giving up on {} after {} attempts, parking it", message.getKey(), attempt);
+            Counter.builder("image.processing.parked")
+                    .description("Messages moved to the parking-lot queue after exhausting their retries")
+                    .tag("storage", message.getStorageType())
+                    .register(meterRegistry)
+                    .increment();
+            return false;
+        }
+
+        long delay = delays.get(attempt - 1);
+        String messageId = UUID.randomUUID().toString();
+        rabbitTemplate.invoke(operations -> {
+            operations.convertAndSend(IMAGE_PROCESSING_RETRY_EXCHANGE, message.getStorageType(), message, retry -> {
+                retry.getMessageProperties().setMessageId(messageId);
+                retry.getMessageProperties().setHeader(ATTEMPT_HEADER, attempt + 1);
+                retry.getMessageProperties().setHeader(DELAY_HEADER, String.valueOf(delay));
+                return retry;
+            });
+            operations.waitForConfirmsOrDie(confirmTimeoutMs);
+            return null;
+        });
+        if (returned.remove(messageId)) {
+            throw new AmqpException("No retry queue is bound for a delay of " + delay + " ms");
+        }
+        log.info("Retrying {} in {} ms (attempt {} of {})", message.getKey(), delay, attempt + 1, maxAttempts);
+        Counter.builder("image.processing.retries")
+                .description("Failed messages scheduled for a delayed retry")
+                .tag("storage", message.getStorageType())
+                .tag("attempt", String.valueOf(attempt + 1))
+                .register(meterRegistry)
+                .increment();
+        return true;
+    }
+}
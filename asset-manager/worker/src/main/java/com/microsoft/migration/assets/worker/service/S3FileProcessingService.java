@@ -1,5 +1,6 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.worker.model.SourceVersion;
 import com.microsoft.migration.assets.worker.repository.ImageMetadataRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,12 +10,18 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Map;
 
 @Service
 @Profile("!dev")
@@ -26,6 +33,33 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
     @Value("${aws.s3.bucket}")
     private String bucketName;
 
+    @Override
+    public SourceVersion describeOriginal(String key) {
+        HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+        return new SourceVersion(response.eTag(), response.contentLength());
+    }
+
+    @Override
+    public boolean thumbnailExists(String key) {
+        try {
+            s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
     @Override
     public void downloadOriginal(String key, Path destination) throws Exception {
         GetObjectRequest request = GetObjectRequest.builder()
@@ -38,6 +72,16 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
         }
     }
 
+    @Override
+    public InputStream openOriginal(String key) throws Exception {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+
+        return s3Client.getObject(request);
+    }
+
     @Override
     public void uploadThumbnail(Path source, String key, String contentType) throws Exception {
         PutObjectRequest request = PutObjectRequest.builder()
@@ -47,17 +91,29 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
                 .build();
                 
         s3Client.putObject(request, RequestBody.fromFile(source));
+    }
+
+    @Override
+    public void uploadThumbnail(byte[] data, String key, String contentType) throws Exception {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+
+        // Serve the encoded buffer directly instead of the defensive copy made by fromBytes
+        s3Client.putObject(request, RequestBody.fromContentProvider(
+                () -> new ByteArrayInputStream(data), data.length, contentType));
+    }
 
-        // Extract the original key from the thumbnail key
-        String originalKey = extractOriginalKey(key);
-        
+    @Override
+    public void recordRenditions(String originalKey, Map<Integer, String> renditionKeys, String thumbnailKey) {
         // Find and update metadata
-        imageMetadataRepository.findAll().stream()
-            .filter(metadata -> metadata.getS3Key().equals(originalKey))
-            .findFirst()
+        imageMetadataRepository.findByS3Key(originalKey)
             .ifPresent(metadata -> {
-                metadata.setThumbnailKey(key);
-                metadata.setThumbnailUrl(generateUrl(key));
+                metadata.setThumbnailKey(thumbnailKey);
+                metadata.setThumbnailUrl(generateUrl(thumbnailKey));
+                metadata.getRenditionKeys().putAll(renditionKeys);
                 imageMetadataRepository.save(metadata);
             });
     }
@@ -75,20 +131,4 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
                 .build();
         return s3Client.utilities().getUrl(request).toString();
     }
-
-    private String extractOriginalKey(String key) {
-        // For a key like "xxxxx_thumbnail.png", get "xxxxx.png"
-        String suffix = "_thumbnail";
-        int extensionIndex = key.lastIndexOf('.');
-        if (extensionIndex > 0) {
-            String nameWithoutExtension = key.substring(0, extensionIndex);
-            String extension = key.substring(extensionIndex);
-            
-            int suffixIndex = nameWithoutExtension.lastIndexOf(suffix);
-            if (suffixIndex > 0) {
-                return nameWithoutExtension.substring(0, suffixIndex) + extension;
-            }
-        }
-        return key;
-    }
-}
\ No newline at end of file
+}
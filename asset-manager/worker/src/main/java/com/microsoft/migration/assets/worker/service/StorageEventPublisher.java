@@ -0,0 +1,37 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.StorageEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.STORAGE_EVENTS_EXCHANGE;
+
+/**
+ * Publishes thumbnail-completion events that the web application uses to invalidate its
+ * listing cache. Events are best effort: a lost event only leaves a listing stale until the
+ * cache's staleness bound expires it.
+ */
+@Slf4j
+@Component
+public class StorageEventPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+
+    public StorageEventPublisher(RabbitTemplate rabbitTemplate) {
+        this.rabbitTemplate = rabbitTemplate;
+    }
+
+    public void thumbnailsCreated(String storageType, String originalKey, Collection<String> keys) {
+        try {
+            rabbitTemplate.convertAndSend(STORAGE_EVENTS_EXCHANGE, storageType,
+                    new StorageEvent(storageType, originalKey, new ArrayList<>(keys)));
+        } catch (AmqpException e) {
+            log.warn("Could not publish storage event for {}: {}", originalKey, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.microsoft.migration.assets.worker.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes per-stage timings, byte counts and queue wait of the thumbnail pipeline to Micrometer.
+ * Stage timers are tagged by storage type, image format, source megapixel bucket and outcome,
+ * so slow messages can be attributed to download, decode, scaling, encoding or upload.
+ */
+@Component
+@RequiredArgsConstructor
+public class ThumbnailMetrics {
+    private final MeterRegistry meterRegistry;
+
+    public void publish(ProcessingTrace trace, String storageType, String format, boolean success) {
+        Tags tags = Tags.of(
+                "storage", storageType,
+                "format", format.isEmpty() ? "none" : format.toLowerCase(),
+                "megapixels", megapixelBucket(trace.getSourcePixels()),
+                "outcome", success ? "success" : "failure");
+
+        for (ProcessingTrace.Stage stage : ProcessingTrace.Stage.values()) {
+            long nanos = trace.getNanos(stage);
+            if (nanos > 0) {
+                Timer.builder("image.processing.stage")
+                        .description("Time spent in each thumbnail pipeline stage")
+                        .tags(tags)
+                        .tag("stage", stage.name().toLowerCase())
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (trace.getBytesIn() >= 0) {
+            DistributionSummary.builder("image.processing.bytes.in")
+                    .description("Size of original images read by the worker")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry)
+                    .record(trace.getBytesIn());
+        }
+        if (trace.getBytesOut() > 0) {
+            DistributionSummary.builder("image.processing.bytes.out")
+                    .description("Total size of the renditions written for an image")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry)
+                    .record(trace.getBytesOut());
+        }
+    }
+
+    /**
+     * Records how long a message waited in the queue, based on its publish timestamp
+     */
+    public void recordQueueWait(String storageType, Date publishedAt) {
+        if (publishedAt == null) {
+            return;
+        }
+        long waitMillis = Math.max(0, System.currentTimeMillis() - publishedAt.getTime());
+        Timer.builder("image.processing.queue.wait")
+                .description("Time between publishing an image message and its delivery to the worker")
+                .tag("storage", storageType)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static String megapixelBucket(long pixels) {
+        if (pixels < 0) {
+            return "unknown";
+        }
+        double megapixels = pixels / 1_000_000.0;
+        if (megapixels < 1) {
+            return "<1";
+        } else if (megapixels < 4) {
+            return "1-4";
+        } else if (megapixels < 12) {
+            return "4-12";
+        } else if (megapixels < 24) {
+            return "12-24";
+        } else if (megapixels < 50) {
+            return "24-50";
+        }
+        return "50+";
+    }
+}
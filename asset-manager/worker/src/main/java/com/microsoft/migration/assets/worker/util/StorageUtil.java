@@ -12,6 +12,17 @@ public class StorageUtil {
         return key + "_thumbnail";
     }
 
+    /**
+     * Get the key for a thumbnail rendition of a given size
+     */
+    public static String getRenditionKey(String key, int size) {
+        int dotIndex = key.lastIndexOf('.');
+        if (dotIndex > 0) {
+            return key.substring(0, dotIndex) + "_thumbnail_" + size + key.substring(dotIndex);
+        }
+        return key + "_thumbnail_" + size;
+    }
+
     /**
      * Get file extension from a key or filename
      */
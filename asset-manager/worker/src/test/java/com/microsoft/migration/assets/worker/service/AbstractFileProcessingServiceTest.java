@@ -0,0 +1,190 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.worker.model.SourceVersion;
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class AbstractFileProcessingServiceTest {
+
+    private final LocalFileProcessingService service = new LocalFileProcessingService();
+
+    @Test
+    void readImageSubsamplesLargeSources() throws Exception {
+        // Arrange
+        byte[] png = encode(new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB));
+
+        // Act
+        BufferedImage decoded = read(png, 600);
+
+        // Assert - subsampled by 3, still at least twice the target size
+        assertEquals(1334, decoded.getWidth());
+        assertEquals(1000, decoded.getHeight());
+    }
+
+    @Test
+    void readImageKeepsSmallSourcesAtFullResolution() throws Exception {
+        // Arrange
+        byte[] png = encode(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB));
+
+        // Act
+        BufferedImage decoded = read(png, 600);
+
+        // Assert
+        assertEquals(800, decoded.getWidth());
+        assertEquals(600, decoded.getHeight());
+    }
+
+    @Test
+    void readImageCropsPathologicalAspectRatios() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(service, "maxAspectRatio", 10.0);
+        byte[] png = encode(new BufferedImage(5000, 100, BufferedImage.TYPE_INT_RGB));
+
+        // Act
+        BufferedImage decoded = read(png, 600);
+
+        // Assert - centred 1000x100 region, then subsampling leaves it untouched
+        assertEquals(1000, decoded.getWidth());
+        assertEquals(100, decoded.getHeight());
+    }
+
+    @Test
+    void generateThumbnailsDerivesEveryRenditionFromOneDecode() throws Exception {
+        // Arrange
+        byte[] png = encode(new BufferedImage(3000, 2000, BufferedImage.TYPE_INT_RGB));
+
+        // Act
+        Map<Integer, BufferedImage> renditions;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(png))) {
+            renditions = service.generateThumbnails(input, Arrays.asList(1200, 600, 150));
+        }
+
+        // Assert
+        assertEquals(Arrays.asList(1200, 600, 150), new ArrayList<>(renditions.keySet()));
+        assertEquals(1200, renditions.get(1200).getWidth());
+        assertEquals(800, renditions.get(1200).getHeight());
+        assertEquals(600, renditions.get(600).getWidth());
+        assertEquals(150, renditions.get(150).getWidth());
+        assertEquals(100, renditions.get(150).getHeight());
+    }
+
+    @Test
+    void processImageBatchNacksFailuresThenAcksSuccessesCumulatively() throws Exception {
+        // Arrange
+        LocalFileProcessingService batchService = spy(new LocalFileProcessingService());
+        Channel channel = mock(Channel.class);
+        ImageProcessingMessage ok1 = new ImageProcessingMessage("a.jpg", "image/jpeg", "local", 1);
+        ImageProcessingMessage bad = new ImageProcessingMessage("b.jpg", "image/jpeg", "local", 1);
+        ImageProcessingMessage ok2 = new ImageProcessingMessage("c.jpg", "image/jpeg", "local", 1);
+        doReturn(true).when(batchService).handleMessage(ok1);
+        doReturn(false).when(batchService).handleMessage(bad);
+        doReturn(true).when(batchService).handleMessage(ok2);
+
+        // Act
+        batchService.processImageBatch(Arrays.asList(delivery(ok1, 5), delivery(bad, 6), delivery(ok2, 7)), channel);
+
+        // Assert
+        InOrder inOrder = inOrder(channel);
+        inOrder.verify(channel).basicNack(6, false, false);
+        inOrder.verify(channel).basicAck(7, true);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    void processImageAcksFailuresThatWereRescheduled() throws Exception {
+        // Arrange
+        LocalFileProcessingService retryingService = spy(new LocalFileProcessingService());
+        RetryScheduler retryScheduler = mock(RetryScheduler.class);
+        retryingService.setRetryScheduler(retryScheduler);
+        Channel channel = mock(Channel.class);
+        ImageProcessingMessage message = new ImageProcessingMessage("a.jpg", "image/jpeg", "local", 1);
+        doReturn(false).when(retryingService).handleMessage(message);
+        when(retryScheduler.scheduleRetry(message, 2)).thenReturn(true);
+
+        // Act
+        retryingService.processImage(message, channel, 9, null, 2);
+
+        // Assert
+        verify(channel).basicAck(9, false);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    void processImageParksFailuresWithoutRetriesLeft() throws Exception {
+        // Arrange
+        LocalFileProcessingService retryingService = spy(new LocalFileProcessingService());
+        RetryScheduler retryScheduler = mock(RetryScheduler.class);
+        retryingService.setRetryScheduler(retryScheduler);
+        Channel channel = mock(Channel.class);
+        ImageProcessingMessage message = new ImageProcessingMessage("a.jpg", "image/jpeg", "local", 1);
+        doReturn(false).when(retryingService).handleMessage(message);
+        when(retryScheduler.scheduleRetry(message, 1)).thenReturn(false);
+
+        // Act
+        retryingService.processImage(message, channel, 9, null, null);
+
+        // Assert - rejecting without requeue dead-letters to the parking lot
+        verify(channel).basicNack(9, false, false);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    void handleMessageSkipsSourceVersionsAlreadyInLedger(@TempDir Path storage) throws Exception {
+        // Arrange - the original is not decodable, so any real processing would fail
+        Files.write(storage.resolve("a.jpg"), new byte[] {1, 2, 3});
+        Files.write(storage.resolve("a_thumbnail.jpg"), new byte[] {4, 5, 6});
+        ReflectionTestUtils.setField(service, "storageDirectory", storage.toString());
+        service.init();
+        ProcessingLedger ledger = mock(ProcessingLedger.class);
+        SourceVersion source = service.describeOriginal("a.jpg");
+        when(ledger.findThumbnailKey("local", "a.jpg", source)).thenReturn(Optional.of("a_thumbnail.jpg"));
+        service.setLedger(ledger);
+
+        // Act
+        boolean result = service.handleMessage(new ImageProcessingMessage("a.jpg", "image/jpeg", "local", 3));
+
+        // Assert
+        assertTrue(result);
+        verify(ledger, never()).record(any(), any(), any(), any());
+    }
+
+    private Message<ImageProcessingMessage> delivery(ImageProcessingMessage message, long deliveryTag) {
+        return MessageBuilder.withPayload(message).setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag).build();
+    }
+
+    private BufferedImage read(byte[] data, int maxDimension) throws Exception {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            return service.readImage(input, maxDimension);
+        }
+    }
+
+    private byte[] encode(BufferedImage image) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", buffer);
+        return buffer.toByteArray();
+    }
+}
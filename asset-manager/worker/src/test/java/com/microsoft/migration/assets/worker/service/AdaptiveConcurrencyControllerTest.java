@@ -0,0 +1,117 @@
+package com.microsoft.migration.assets.worker.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveConcurrencyControllerTest {
+
+    private final RabbitListenerEndpointRegistry registry = mock(RabbitListenerEndpointRegistry.class);
+    private final SimpleMessageListenerContainer container = mock(SimpleMessageListenerContainer.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(registry, meterRegistry);
+
+    @BeforeEach
+    void setUp() {
+        when(registry.getListenerContainers()).thenReturn(Collections.singletonList(container));
+        ReflectionTestUtils.setField(controller, "adaptive", true);
+        ReflectionTestUtils.setField(controller, "minConsumers", 1);
+        ReflectionTestUtils.setField(controller, "maxConsumers", 8);
+        ReflectionTestUtils.setField(controller, "targetLatencyMs", 60000L);
+        // Keep the host's real CPU load and heap usage from deciding the outcome
+        ReflectionTestUtils.setField(controller, "maxCpu", Double.MAX_VALUE);
+        ReflectionTestUtils.setField(controller, "minHeapHeadroom", -Double.MAX_VALUE);
+        controller.init();
+    }
+
+    @Test
+    void growsAdditivelyWithoutPressure() {
+        assertEquals(5, AdaptiveConcurrencyController.next(4, false, 1, 8));
+    }
+
+    @Test
+    void shrinksMultiplicativelyUnderPressure() {
+        assertEquals(4, AdaptiveConcurrencyController.next(8, true, 1, 8));
+    }
+
+    @Test
+    void staysWithinFloorAndCeiling() {
+        assertEquals(8, AdaptiveConcurrencyController.next(8, false, 1, 8));
+        assertEquals(2, AdaptiveConcurrencyController.next(3, true, 2, 8));
+    }
+
+    @Test
+    void adjustAddsAConsumerToRunningContainers() throws Throwable {
+        // Arrange
+        processMessage();
+
+        // Act
+        controller.adjust();
+
+        // Assert
+        verify(container).setConcurrentConsumers(2);
+        verify(container, never()).setPrefetchCount(anyInt());
+        assertEquals(2, controller.getConsumers());
+        assertEquals(2.0, meterRegistry.get("image.processing.consumers").gauge().value());
+    }
+
+    @Test
+    void adjustHalvesConsumersUnderPressure() throws Throwable {
+        // Arrange
+        ReflectionTestUtils.setField(controller, "consumers", 6);
+        ReflectionTestUtils.setField(controller, "maxCpu", -1.0);
+        processMessage();
+
+        // Act
+        controller.adjust();
+
+        // Assert
+        verify(container).setConcurrentConsumers(3);
+        verify(container, never()).setPrefetchCount(anyInt());
+        assertEquals(3, controller.getConsumers());
+    }
+
+    @Test
+    void adjustKeepsSettingsWithoutMeasurements() {
+        // Act
+        controller.adjust();
+
+        // Assert
+        verifyNoInteractions(container);
+        assertEquals(1, controller.getConsumers());
+    }
+
+    @Test
+    void adjustLeavesContainersAloneWhenNotAdaptive() throws Throwable {
+        // Arrange
+        ReflectionTestUtils.setField(controller, "adaptive", false);
+        processMessage();
+
+        // Act
+        controller.adjust();
+
+        // Assert
+        verifyNoInteractions(container);
+    }
+
+    private void processMessage() throws Throwable {
+        MethodInvocation invocation = mock(MethodInvocation.class);
+        when(invocation.getArguments()).thenReturn(new Object[] {null, new Object()});
+        controller.invoke(invocation);
+        verify(invocation).proceed();
+    }
+}
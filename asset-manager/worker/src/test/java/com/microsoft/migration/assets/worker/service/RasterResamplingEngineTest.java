@@ -0,0 +1,88 @@
+package com.microsoft.migration.assets.worker.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class RasterResamplingEngineTest {
+
+    private final RasterResamplingEngine engine = new RasterResamplingEngine(4);
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void scaleAndSharpenKeepsFlatColours() {
+        // Arrange - a byte-interleaved source, as decoded from JPEG
+        BufferedImage source = filled(BufferedImage.TYPE_3BYTE_BGR, 2400, 1600, new Color(200, 120, 40));
+
+        // Act
+        BufferedImage result = engine.scaleAndSharpen(source, 600, 400);
+
+        // Assert - both filters are normalized, so a flat image stays flat
+        assertEquals(600, result.getWidth());
+        assertEquals(400, result.getHeight());
+        assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+        assertEquals(new Color(200, 120, 40).getRGB(), result.getRGB(0, 0));
+        assertEquals(new Color(200, 120, 40).getRGB(), result.getRGB(300, 200));
+    }
+
+    @Test
+    void scalePreservesTransparency() {
+        // Arrange
+        BufferedImage source = filled(BufferedImage.TYPE_INT_ARGB, 1000, 1000, new Color(10, 200, 90, 128));
+
+        // Act
+        BufferedImage result = engine.scale(source, 150, 150);
+
+        // Assert
+        assertEquals(BufferedImage.TYPE_INT_ARGB, result.getType());
+        assertEquals(new Color(10, 200, 90, 128).getRGB(), result.getRGB(75, 75));
+    }
+
+    @Test
+    void scaleMatchesJava2dForSmallSources() {
+        // Arrange
+        BufferedImage source = filled(BufferedImage.TYPE_INT_RGB, 100, 80, Color.WHITE);
+
+        // Act & Assert - like the Java2D engine, no upscaling
+        assertSame(source, engine.scale(source, 600, 480));
+    }
+
+    @Test
+    void sharpenEnhancesEdgesButLeavesBorderPixels() {
+        // Arrange - left half black, right half grey
+        BufferedImage source = filled(BufferedImage.TYPE_INT_RGB, 10, 10, Color.BLACK);
+        Graphics2D g2d = source.createGraphics();
+        g2d.setColor(new Color(100, 100, 100));
+        g2d.fillRect(5, 0, 5, 10);
+        g2d.dispose();
+
+        // Act
+        BufferedImage result = engine.sharpen(source);
+
+        // Assert - 1.8 * 100 - 0.2 * (0 + 100 + 100 + 100) = 120 next to the edge
+        assertEquals(new Color(120, 120, 120).getRGB(), result.getRGB(5, 5));
+        assertEquals(new Color(100, 100, 100).getRGB(), result.getRGB(5, 0));
+        assertEquals(Color.BLACK.getRGB(), result.getRGB(4, 5));
+    }
+
+    private BufferedImage filled(int type, int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setColor(color);
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,116 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.ImageProcessingMessage;
+import io.micrometer.core.instrument.search.MeterNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.Arrays;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.IMAGE_PROCESSING_RETRY_EXCHANGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RetrySchedulerTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RetryScheduler retryScheduler = new RetryScheduler(rabbitTemplate, meterRegistry, 5, 5000, 4, 600000, 5000);
+    private final ImageProcessingMessage message = new ImageProcessingMessage("a.jpg", "image/jpeg", "s3", 1);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // Run the publish callback against the template itself, as on a dedicated channel
+        when(rabbitTemplate.invoke(any(RabbitOperations.OperationsCallback.class))).thenAnswer(invocation ->
+                ((RabbitOperations.OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(rabbitTemplate));
+    }
+
+    @Test
+    void delaysGrowExponentiallyUpToTheCap() {
+        assertEquals(Arrays.asList(5000L, 20000L, 80000L, 320000L), retryScheduler.getDelays());
+        assertEquals(Arrays.asList(1000L, 3000L, 3000L),
+                new RetryScheduler(rabbitTemplate, meterRegistry, 4, 1000, 3, 3000, 5000).getDelays());
+    }
+
+    @Test
+    void scheduleRetryPublishesToTheTierForTheFailedAttempt() throws Exception {
+        // Act
+        boolean scheduled = retryScheduler.scheduleRetry(message, 2);
+
+        // Assert
+        assertTrue(scheduled);
+        ArgumentCaptor<MessagePostProcessor> postProcessor = ArgumentCaptor.forClass(MessagePostProcessor.class);
+        verify(rabbitTemplate).setMandatory(true);
+        verify(rabbitTemplate).convertAndSend(eq(IMAGE_PROCESSING_RETRY_EXCHANGE), eq("s3"), eq(message),
+                postProcessor.capture());
+        verify(rabbitTemplate).waitForConfirmsOrDie(5000);
+        Message retry = postProcessor.getValue().postProcessMessage(new Message(new byte[0], new MessageProperties()));
+        assertEquals(3, (Integer) retry.getMessageProperties().getHeader(RetryScheduler.ATTEMPT_HEADER));
+        assertEquals("20000", retry.getMessageProperties().getHeader(RetryScheduler.DELAY_HEADER));
+        assertEquals(1.0, meterRegistry.get("image.processing.retries").tag("attempt", "3").counter().count());
+    }
+
+    @Test
+    void scheduleRetryGivesUpAfterMaxAttempts() {
+        // Act
+        boolean scheduled = retryScheduler.scheduleRetry(message, 5);
+
+        // Assert
+        assertFalse(scheduled);
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class),
+                any(MessagePostProcessor.class));
+        assertEquals(1.0, meterRegistry.get("image.processing.parked").counter().count());
+    }
+
+    @Test
+    void scheduleRetryFailsWhenTheCopyIsNotConfirmed() {
+        // Arrange
+        doThrow(new AmqpException("nack")).when(rabbitTemplate).waitForConfirmsOrDie(anyLong());
+
+        // Act & Assert
+        assertThrows(AmqpException.class, () -> retryScheduler.scheduleRetry(message, 1));
+        assertThrows(MeterNotFoundException.class, () -> meterRegistry.get("image.processing.retries").counter());
+    }
+
+    @Test
+    void scheduleRetryFailsWhenTheCopyIsReturnedUnroutable() {
+        // Arrange
+        ArgumentCaptor<RabbitTemplate.ReturnsCallback> returnsCallback =
+                ArgumentCaptor.forClass(RabbitTemplate.ReturnsCallback.class);
+        verify(rabbitTemplate).setReturnsCallback(returnsCallback.capture());
+        doAnswer(invocation -> {
+            Message retry = ((MessagePostProcessor) invocation.getArgument(3))
+                    .postProcessMessage(new Message(new byte[0], new MessageProperties()));
+            returnsCallback.getValue().returnedMessage(
+                    new ReturnedMessage(retry, 312, "NO_ROUTE", IMAGE_PROCESSING_RETRY_EXCHANGE, "s3"));
+            return null;
+        }).when(rabbitTemplate).convertAndSend(eq(IMAGE_PROCESSING_RETRY_EXCHANGE), eq("s3"), eq(message),
+                any(MessagePostProcessor.class));
+
+        // Act & Assert
+        assertThrows(AmqpException.class, () -> retryScheduler.scheduleRetry(message, 1));
+        assertThrows(MeterNotFoundException.class, () -> meterRegistry.get("image.processing.retries").counter());
+    }
+}
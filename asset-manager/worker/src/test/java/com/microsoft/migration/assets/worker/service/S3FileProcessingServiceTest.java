@@ -1,23 +1,31 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.worker.model.ImageMetadata;
 import com.microsoft.migration.assets.worker.repository.ImageMetadataRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Utilities;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
+import java.io.ByteArrayInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -57,16 +65,18 @@ public class S3FileProcessingServiceTest {
     void downloadOriginalCopiesFileFromS3() throws Exception {
         // Arrange
         Path tempFile = Files.createTempFile("download-", ".tmp");
-        @SuppressWarnings("unchecked")
-        ResponseInputStream<GetObjectResponse> mockResponse = mock(ResponseInputStream.class);
+        ResponseInputStream<GetObjectResponse> response = new ResponseInputStream<>(
+                GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(new byte[] {1, 2, 3})));
 
-        when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(mockResponse);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(response);
 
         // Act
         s3FileProcessingService.downloadOriginal(testKey, tempFile);
 
         // Assert
         verify(s3Client).getObject(any(GetObjectRequest.class));
+        assertEquals(3, Files.size(tempFile));
 
         // Clean up
         Files.deleteIfExists(tempFile);
@@ -76,7 +86,6 @@ public class S3FileProcessingServiceTest {
     void uploadThumbnailPutsFileToS3() throws Exception {
         // Arrange
         Path tempFile = Files.createTempFile("thumbnail-", ".tmp");
-        when(imageMetadataRepository.findAll()).thenReturn(Collections.emptyList());
 
         // Act
         s3FileProcessingService.uploadThumbnail(tempFile, thumbnailKey, "image/jpeg");
@@ -89,14 +98,37 @@ public class S3FileProcessingServiceTest {
     }
 
     @Test
-    void testExtractOriginalKey() throws Exception {
-        // Use reflection to test private method
-        String result = (String) ReflectionTestUtils.invokeMethod(
-                s3FileProcessingService,
-                "extractOriginalKey",
-                "image_thumbnail.jpg");
+    void uploadThumbnailPutsBufferToS3() throws Exception {
+        // Arrange
+        byte[] data = new byte[] {1, 2, 3, 4};
+
+        // Act
+        s3FileProcessingService.uploadThumbnail(data, thumbnailKey, "image/jpeg");
+
+        // Assert
+        ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+        verify(s3Client).putObject(any(PutObjectRequest.class), body.capture());
+        assertEquals(Optional.of(4L), body.getValue().optionalContentLength());
+    }
+
+    @Test
+    void recordRenditionsUpdatesMetadataByKey() {
+        // Arrange
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setS3Key(testKey);
+        when(imageMetadataRepository.findByS3Key(testKey)).thenReturn(Optional.of(metadata));
+        when(s3Client.utilities()).thenReturn(S3Utilities.builder().region(Region.US_EAST_1).build());
+        Map<Integer, String> renditionKeys = new HashMap<>();
+        renditionKeys.put(150, "test-image_thumbnail_150.jpg");
+        renditionKeys.put(600, thumbnailKey);
+
+        // Act
+        s3FileProcessingService.recordRenditions(testKey, renditionKeys, thumbnailKey);
 
         // Assert
-        assertEquals("image.jpg", result);
+        verify(imageMetadataRepository, never()).findAll();
+        verify(imageMetadataRepository).save(metadata);
+        assertEquals(thumbnailKey, metadata.getThumbnailKey());
+        assertEquals(renditionKeys, metadata.getRenditionKeys());
     }
 }
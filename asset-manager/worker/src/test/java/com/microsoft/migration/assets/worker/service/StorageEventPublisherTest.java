@@ -0,0 +1,43 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.worker.model.StorageEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.STORAGE_EVENTS_EXCHANGE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class StorageEventPublisherTest {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final StorageEventPublisher publisher = new StorageEventPublisher(rabbitTemplate);
+
+    @Test
+    void thumbnailsCreatedPublishesTheWrittenKeysUnderTheStorageType() {
+        // Act
+        publisher.thumbnailsCreated("s3", "a.jpg", Arrays.asList("a_thumbnail.jpg", "a_thumbnail_150.jpg"));
+
+        // Assert
+        verify(rabbitTemplate).convertAndSend(STORAGE_EVENTS_EXCHANGE, "s3",
+                new StorageEvent("s3", "a.jpg", Arrays.asList("a_thumbnail.jpg", "a_thumbnail_150.jpg")));
+    }
+
+    @Test
+    void thumbnailsCreatedDoesNotFailProcessingWhenTheBrokerIsDown() {
+        // Arrange
+        doThrow(new AmqpConnectException(new ConnectException("refused")))
+                .when(rabbitTemplate).convertAndSend(eq(STORAGE_EVENTS_EXCHANGE), anyString(), any(Object.class));
+
+        // Act - must not throw
+        publisher.thumbnailsCreated("s3", "a.jpg", Arrays.asList("a_thumbnail.jpg"));
+    }
+}
@@ -0,0 +1,48 @@
+package com.microsoft.migration.assets.worker.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ThumbnailMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ThumbnailMetrics metrics = new ThumbnailMetrics(registry);
+
+    @Test
+    void publishRecordsOnlyStagesThatRan() {
+        // Arrange
+        ProcessingTrace trace = new ProcessingTrace();
+        trace.record(ProcessingTrace.Stage.DECODE, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        trace.setSourcePixels(4000L * 3000L);
+        trace.setBytesIn(2048);
+        trace.addBytesOut(512);
+
+        // Act
+        metrics.publish(trace, "s3", "jpg", true);
+
+        // Assert
+        Timer decode = registry.find("image.processing.stage")
+                .tags("stage", "decode", "storage", "s3", "format", "jpg", "megapixels", "12-24", "outcome", "success")
+                .timer();
+        assertNotNull(decode);
+        assertEquals(1, decode.count());
+        assertNull(registry.find("image.processing.stage").tag("stage", "upload").timer());
+        assertEquals(2048, registry.find("image.processing.bytes.in").summary().totalAmount());
+        assertEquals(512, registry.find("image.processing.bytes.out").summary().totalAmount());
+    }
+
+    @Test
+    void megapixelBucketGroupsSourceSizes() {
+        assertEquals("unknown", ThumbnailMetrics.megapixelBucket(-1));
+        assertEquals("<1", ThumbnailMetrics.megapixelBucket(800 * 600));
+        assertEquals("4-12", ThumbnailMetrics.megapixelBucket(4000 * 2000));
+        assertEquals("50+", ThumbnailMetrics.megapixelBucket(10000L * 10000L));
+    }
+}